@@ -2,45 +2,64 @@ package wny;
 
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import com.gurobi.gurobi.GRBException;
 import wny.data.Generator;
+import wny.entities.ColumnStore;
 import wny.entities.Constraint;
 import wny.entities.Relation;
-import wny.entities.Tuple;
+import wny.solver.CrossEntropy;
 import wny.solver.GurobiSolver;
 import wny.solver.Sampling;
+import wny.util.BinaryParser;
 import wny.util.DatabaseParser;
 import wny.util.RankingMeasurer;
+import wny.util.ScoringKernel;
 
 /** 
  * An experiment class which contains experiments in the RankHow paper
  * @author Zixuan Chen
 */
 public class Experiment {
-     /** 
-     * Get tuples to rank from a relation
-     * @param relation All original tuples in the given relation
-     * @param num_tuple Number of tuples in the ranking
-     * @param num_attribute Number of ranking attributes
-     * @return Tuples to rank
+    /** 
+     * Sort tuples by their scores in descending order
+     * Ties are in the same order as sorting in ascending order and then reversing the tuples
+     * @param data All tuples
+     * @param scores The score of each tuple
+     * @return The sorted tuples
+    */
+    private static ColumnStore sort(ColumnStore data, double[] scores) {
+        int n = data.get_size();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> (scores[a] < scores[b]) ? -1 : ((scores[a] > scores[b]) ? 1 : 0));
+        int[] reversed = new int[n];
+        for (int i = 0; i < n; i++) {
+            reversed[i] = order[n - 1 - i];
+        }
+        return data.reorder(reversed);
+    }
+
+    /** 
+     * @param data All tuples
+     * @param exponent The exponent
+     * @return The score A1 ^ exponent + ... + A5 ^ exponent of each tuple
     */
-    private static ArrayList<Tuple> getTuples(ArrayList<Tuple> relation, int num_tuple, int num_attribute) {
-        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-        for (int i = 0; i < num_tuple; i++) {
-            Tuple tuple = new Tuple(new String[num_attribute + 1]);
-            for (int j = 0; j <= num_attribute; j++) {
-                tuple.values[j] = relation.get(i).values[j];
+    private static double[] power_sum(ColumnStore data, int exponent) {
+        double[] scores = new double[data.get_size()];
+        for (int i = 0; i < scores.length; i++) {
+            for (int j = 0; j < 5; j++) {
+                scores[i] += Math.pow(data.get(i, j), exponent);
             }
-            tuples.add(tuple);
         }
-        return tuples;
+        return scores;
     }
-    
+
     /** 
      * Write integer results into a file
      * @param result The experimental result
@@ -71,7 +90,7 @@ public class Experiment {
         int[] indices = {0,3,4,5,6,7};
         relation.project(indices);
 
-        GurobiSolver gs = new GurobiSolver(relation.getAll(), given_ranking, 1e-4 / 2, 1e-4 / 2);
+        GurobiSolver gs = new GurobiSolver(relation.getColumns(), given_ranking, 1e-4 / 2, 1e-4 / 2);
         
         long start, end;
         RankingMeasurer rm;
@@ -112,7 +131,7 @@ public class Experiment {
         int n = relation.get_size();
         int m = 2;
 
-        GurobiSolver gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, 1e-4 / 2, 1e-4 / 2);
+        GurobiSolver gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, 1e-4 / 2, 1e-4 / 2);
         
         long start, end;
         RankingMeasurer rm;
@@ -149,7 +168,7 @@ public class Experiment {
         int m = 8;
         int k = 13;
 
-        GurobiSolver gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, 1e-4 / 2, 1e-4 / 2);
+        GurobiSolver gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, 1e-4 / 2, 1e-4 / 2);
         
         long start, end;
         RankingMeasurer rm;
@@ -195,11 +214,13 @@ public class Experiment {
         double gap = 1e-4 / 2;
         GurobiSolver gs;
         Sampling s;
+        CrossEntropy ce;
         RankingMeasurer rm;
 
         System.out.println("k: " + k + ", n: " + n + ", m: " + m);
-        gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, precision, gap);
-        s = new Sampling(getTuples(relation.getAll(), n, m), given_ranking, gap);
+        gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, precision, gap);
+        s = new Sampling(relation.getColumns().view(n, m), given_ranking, gap);
+        ce = new CrossEntropy(relation.getColumns().view(n, m), given_ranking, gap);
         
         System.out.println("RankHow-OPT");
         start = System.currentTimeMillis();
@@ -240,6 +261,22 @@ public class Experiment {
             System.out.println();
         }
 
+        for (int i = 1; i <= 10; i++) {
+            System.out.println("Cross-Entropy " + i);
+            int error = 0, execution_time = 0;
+            for (int j = 0; j < 3; j++) {
+                start = System.currentTimeMillis();
+                ce.optimize_timeout(unit / 5 * i, k);
+                end = System.currentTimeMillis();
+                execution_time += end - start;
+                rm = new RankingMeasurer(ce.getRanking(k), given_ranking);
+                error += rm.error(k);
+            }
+            System.out.println("Running time: " + execution_time / 3 + "ms");
+            System.out.println("Error: " + error / 3);
+            System.out.println();
+        }
+
         for (int i = 1; i <= 10; i++) {
             System.out.println("RankHow-SGD " + i);
             start = System.currentTimeMillis();
@@ -284,8 +321,8 @@ public class Experiment {
         for (int i = 1; i <= 5; i++) {
             int num_tuples = (i == 5)? relation.get_size() : i * 5000;
             System.out.println("k: " + k + ", n: " + num_tuples + ", m: " + m);
-            gs = new GurobiSolver(getTuples(relation.getAll(), num_tuples, m), given_ranking, precision, gap); 
-            s = new Sampling(getTuples(relation.getAll(), num_tuples, m), given_ranking, gap);
+            gs = new GurobiSolver(relation.getColumns().view(num_tuples, m), given_ranking, precision, gap); 
+            s = new Sampling(relation.getColumns().view(num_tuples, m), given_ranking, gap);
 
             System.out.println("RankHow-OPT");
             start = System.currentTimeMillis();
@@ -340,8 +377,8 @@ public class Experiment {
         result = new int[3][5];
         for (int i = 4; i <= 8; i++) {
             System.out.println("k: " + k + ", n: " + n + ", m: " + i);
-            gs = new GurobiSolver(getTuples(relation.getAll(), n, i), given_ranking, precision, gap); 
-            s = new Sampling(getTuples(relation.getAll(), n, i), given_ranking, gap);
+            gs = new GurobiSolver(relation.getColumns().view(n, i), given_ranking, precision, gap); 
+            s = new Sampling(relation.getColumns().view(n, i), given_ranking, gap);
 
             System.out.println("RankHow");
             start = System.currentTimeMillis();
@@ -395,8 +432,8 @@ public class Experiment {
         System.out.println("Vary k on NBA data");
         result = new int[3][5];
         for (int i = 2; i <= 6; i ++) {
-            gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, precision, gap); 
-            s = new Sampling(getTuples(relation.getAll(), n, m), given_ranking, gap);
+            gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, precision, gap); 
+            s = new Sampling(relation.getColumns().view(n, m), given_ranking, gap);
             System.out.println("k: " + i + ", n: " + n + ", m: " + m);
 
             System.out.println("RankHow");
@@ -477,8 +514,8 @@ public class Experiment {
         for (int i = 1; i <= 7; i++) {
             int num_tuples = (i == 7)? relation.get_size() : i * 100;
             System.out.println("k: " + k + ", n: " + num_tuples + ", m: " + m);
-            gs = new GurobiSolver(getTuples(relation.getAll(), num_tuples, m), given_ranking, precision, gap); 
-            s = new Sampling(getTuples(relation.getAll(), num_tuples, m), given_ranking, gap);
+            gs = new GurobiSolver(relation.getColumns().view(num_tuples, m), given_ranking, precision, gap); 
+            s = new Sampling(relation.getColumns().view(num_tuples, m), given_ranking, gap);
 
             System.out.println("RankHow");
             start = System.currentTimeMillis();
@@ -522,8 +559,8 @@ public class Experiment {
         for (int i = 1; i <= 6; i++) {
             int num_attributes = (i == 6)? 27 : i * 5;
             System.out.println("k: " + k + ", n: " + n + ", m: " + num_attributes);
-            gs = new GurobiSolver(getTuples(relation.getAll(), n, num_attributes), given_ranking, precision, gap); 
-            s = new Sampling(getTuples(relation.getAll(), n, num_attributes), given_ranking, gap);
+            gs = new GurobiSolver(relation.getColumns().view(n, num_attributes), given_ranking, precision, gap); 
+            s = new Sampling(relation.getColumns().view(n, num_attributes), given_ranking, gap);
 
             System.out.println("RankHow");
             start = System.currentTimeMillis();
@@ -562,8 +599,8 @@ public class Experiment {
         write(result, "result/csrankings_error_m_opt.csv");
         System.out.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
 
-        gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, precision, gap); 
-        s = new Sampling(getTuples(relation.getAll(), n, m), given_ranking, gap);
+        gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, precision, gap); 
+        s = new Sampling(relation.getColumns().view(n, m), given_ranking, gap);
         System.out.println("Vary k on CSRankings data");
         result = new int[3][5];
         for (int i = 5; i <= 25; i += 5) {
@@ -625,8 +662,8 @@ public class Experiment {
         int[][] result = new int[5][10];
 
         System.out.println("Numerical issue correction experiments with k from 1 to 10");
-        GurobiSolver gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, 1e-4 / 2, 1e-4 / 2);
-        GurobiSolver gs2 = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, 1e-10/2 , 1e-10 / 2);
+        GurobiSolver gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, 1e-4 / 2, 1e-4 / 2);
+        GurobiSolver gs2 = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, 1e-10/2 , 1e-10 / 2);
         for (int i = 1; i <= 10; i++) {
             System.out.println("k: " + i + ", n: " + n + ", m: " + m);
             result[0][i - 1] = i;
@@ -709,7 +746,7 @@ public class Experiment {
         result = new int[2][10];
 
         for (int i = 1; i <= 10; i++) {
-            GurobiSolver gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, 1e-4 / 2, 1e-4 / 2); 
+            GurobiSolver gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, 1e-4 / 2, 1e-4 / 2); 
             double cell_size = i * 0.001;
             System.out.println("k: " + k + ", n: " + n + ", m: " + m + ", cell size: " + cell_size);
 
@@ -737,26 +774,15 @@ public class Experiment {
     */
     public static void distribution(String distribution) throws GRBException, IOException {
         // Generator g = new Generator(1000000, 5, "data/" + distribution + ".csv");
-        // g.create(distribution);
+        // g.create(distribution, 0, false);
 
+        // The csv file is converted into a binary file once, which is memory-mapped in later runs
         String input_file = "data/" + distribution + ".csv";
-        DatabaseParser db_parser = new DatabaseParser(null);
-        List<Relation> database = db_parser.parse_file(input_file);
-        Relation relation = database.get(0);
-        ArrayList<Tuple> tuples = relation.getAll();
+        Relation relation = BinaryParser.load(input_file);
+        ColumnStore data = relation.getColumns();
 
-        class ranking_function implements Comparator<Tuple> {
-            public int compare(Tuple r, Tuple s) {
-                double score1 = Math.pow(Double.valueOf(r.values[1]), 3) + Math.pow(Double.valueOf(r.values[2]), 3) + Math.pow(Double.valueOf(r.values[3]), 3) + Math.pow(Double.valueOf(r.values[4]), 3) + Math.pow(Double.valueOf(r.values[5]), 3);
-                double score2 = Math.pow(Double.valueOf(s.values[1]), 3) + Math.pow(Double.valueOf(s.values[2]), 3) + Math.pow(Double.valueOf(s.values[3]), 3) + Math.pow(Double.valueOf(s.values[4]), 3) + Math.pow(Double.valueOf(s.values[5]), 3);
-
-                if (score1 < score2) return -1;
-                else if (score1 > score2) return 1;
-                else return 0;
-            }
-        }
-        Collections.sort(tuples, new ranking_function());
-        Collections.reverse(tuples);
+        // A1 ^ 3 + A2 ^ 3 + A3 ^ 3 + A4 ^ 3 + A5 ^ 3
+        data = sort(data, power_sum(data, 3));
 
         long start, end;
         RankingMeasurer rm;
@@ -772,7 +798,7 @@ public class Experiment {
                 given_ranking[i] = k + 1;
             }
             
-            GurobiSolver gs = new GurobiSolver(getTuples(relation.getAll(), 1000000, 5), given_ranking, 1e-5 / 2, 1e-5 / 2);
+            GurobiSolver gs = new GurobiSolver(data.view(1000000, 5), given_ranking, 1e-5 / 2, 1e-5 / 2);
             start = System.currentTimeMillis();
             gs.optimize_gradient_descent(k, 0.01, 0, 1);
             end = System.currentTimeMillis();
@@ -788,12 +814,11 @@ public class Experiment {
      * Corresponding to Section 6.6 Figure 3m, 3n, 3o
     */
     public static void function(String distribution) throws GRBException, IOException {
-        Generator g = new Generator(1000000, 5, "data/" + distribution + ".csv");
-        g.create(distribution);
-
-        String input_file = "data/" + distribution + ".csv";
-        DatabaseParser db_parser = new DatabaseParser(null);
-        List<Relation> database = db_parser.parse_file(input_file);
+        // The data are generated directly in the binary format, with a fixed seed so that runs are reproducible
+        String input_file = "data/" + distribution + ".bin";
+        Generator g = new Generator(1000000, 5, input_file);
+        g.create(distribution, 0, true);
+        Relation relation = BinaryParser.parse_file(input_file);
 
         int k = 10, n = 1000000;
         long start, end;
@@ -801,41 +826,29 @@ public class Experiment {
         
         for (int l = 1; l <= 2; l++) {
             System.out.println("Attribute derivation with exponent " + l);
-            Relation relation = database.get(0);
             start = System.currentTimeMillis();
             relation.derive(l);
             end = System.currentTimeMillis();
             System.out.println("Attribute derivation time: " + (end - start) + "ms");
-            ArrayList<Tuple> tuples = relation.getAll();
+            ColumnStore data = relation.getColumns();
 
             for (int i = 1; i <= 5; i++) {
                 // A1 ^ i + A2 ^ i
-                int e = i;
-                class ranking_function implements Comparator<Tuple> {
-                    public int compare(Tuple r, Tuple s) {
-                        double score1 = Math.pow(Double.valueOf(r.values[1]), e) + Math.pow(Double.valueOf(r.values[2]), e) + Math.pow(Double.valueOf(r.values[3]), e) + Math.pow(Double.valueOf(r.values[4]), e) + Math.pow(Double.valueOf(r.values[5]), e);
-                        double score2 = Math.pow(Double.valueOf(s.values[1]), e) + Math.pow(Double.valueOf(s.values[2]), e) + Math.pow(Double.valueOf(s.values[3]), e) + Math.pow(Double.valueOf(s.values[4]), e) + Math.pow(Double.valueOf(s.values[5]), e);
-
-                        if (score1 < score2) return -1;
-                        else if (score1 > score2) return 1;
-                        else return 0;
-                    }
-                }
-
-                Collections.sort(tuples, new ranking_function());
-                Collections.reverse(tuples);
+                double[] scores = power_sum(data, i);
+                data = sort(data, scores);
+                scores = power_sum(data, i);
                 
                 System.out.println("function: A1 ^ " + i + " + A2 ^ " + i);
                 int[] given_ranking = new int[n];
                 for (int j = 0; j < k; j++) {
                     given_ranking[j] = j + 1;
-                    System.out.println(Math.pow(Double.valueOf(tuples.get(j).values[1]), e) + Math.pow(Double.valueOf(tuples.get(j).values[2]), e) + Math.pow(Double.valueOf(tuples.get(j).values[3]), e) + Math.pow(Double.valueOf(tuples.get(j).values[4]), e) + Math.pow(Double.valueOf(tuples.get(j).values[5]), e));
+                    System.out.println(scores[j]);
                 }
                 for (int j = k; j < n; j++) {
                     given_ranking[j] = 11;
                 }
                 
-                GurobiSolver gs = new GurobiSolver(getTuples(relation.getAll(), 1000000, 5 * l), given_ranking, 1e-5 / 2, 1e-5 / 2);
+                GurobiSolver gs = new GurobiSolver(data.view(1000000, 5 * l), given_ranking, 1e-5 / 2, 1e-5 / 2);
                 start = System.currentTimeMillis();
                 gs.optimize_gradient_descent(k, 0.01, 0, 1);
                 end = System.currentTimeMillis();
@@ -847,6 +860,61 @@ public class Experiment {
         System.out.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
     }
 
+    /** 
+     * Benchmark of the scoring kernel on the NBA data and the synthetic data
+     * Run on JDK 17 or later with --add-modules jdk.incubator.vector to compare the vector kernel with the scalar kernel
+    */
+    public static void scoring() throws IOException {
+        DatabaseParser db_parser = new DatabaseParser(null);
+        ColumnStore nba = db_parser.parse_file("data/per.csv").get(0).getColumns();
+        System.out.println("Kernel: " + ScoringKernel.getInstance().name());
+        benchmark("NBA", nba.view(nba.get_size(), 8), 2000);
+
+        for (String distribution : new String[] {"uniform", "correlated", "anti-correlated"}) {
+            Generator g = new Generator(1000000, 5, null);
+            double[][] columns = g.generate(distribution, 0);
+            benchmark(distribution, new ColumnStore(new String[1000000], columns), 50);
+        }
+        System.out.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
+    }
+
+    /** 
+     * Score all tuples with random weights repeatedly, by the scalar kernel and by the kernel for the running JDK
+     * @param name The name of the data
+     * @param data All tuples
+     * @param repetitions The number of weights
+    */
+    private static void benchmark(String name, ColumnStore data, int repetitions) {
+        int n = data.get_size(), m = data.get_num_attributes();
+        double[][] columns = new double[m][];
+        for (int j = 0; j < m; j++) {
+            columns[j] = data.getColumn(j);
+        }
+        ScoringKernel[] kernels = {new ScoringKernel(), ScoringKernel.getInstance()};
+        double[][] scores = new double[2][n];
+        long[] time = new long[2];
+        Random random = new Random(0);
+        for (int r = -repetitions / 10; r < repetitions; r++) {
+            double[] weights = new double[m];
+            for (int j = 0; j < m; j++) {
+                weights[j] = random.nextDouble();
+            }
+            for (int i = 0; i < 2; i++) {
+                long start = System.nanoTime();
+                kernels[i].score(columns, data.get_offset(), n, weights, scores[i]);
+                // The first repetitions warm up the kernels
+                if (r >= 0) time[i] += System.nanoTime() - start;
+            }
+            if (!Arrays.equals(scores[0], scores[1])) {
+                System.out.println("Different scores from the kernels!");
+            }
+        }
+        System.out.println(name + ", n: " + n + ", m: " + m);
+        System.out.println("Scalar kernel: " + time[0] / repetitions / 1000 + "us per weight");
+        System.out.println(kernels[1].name() + " kernel: " + time[1] / repetitions / 1000 + "us per weight");
+        System.out.println("Speedup: " + String.format("%.2f", (double) time[0] / time[1]));
+    }
+
     public static void main(String args[]) throws Exception 
     {
         // System.out.println("Example 1");
@@ -877,5 +945,7 @@ public class Experiment {
         // distribution("correlated");
         // System.out.println("Scalability anti-correlated");
         // distribution("anti-correlated");
+        // System.out.println("Scoring kernel");
+        // scoring();
     }
 }
\ No newline at end of file
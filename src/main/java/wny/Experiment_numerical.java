@@ -1,12 +1,10 @@
 package wny;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 
 import com.gurobi.gurobi.GRBException;
 import wny.entities.Relation;
-import wny.entities.Tuple;
 import wny.solver.GurobiSolver;
 import wny.util.DatabaseParser;
 import wny.util.RankingMeasurer;
@@ -16,25 +14,6 @@ import wny.util.RankingMeasurer;
  * @author Zixuan Chen
 */
 public class Experiment_numerical {
-     /** 
-     * Get tuples to rank from a relation
-     * @param relation All original tuples in the given relation
-     * @param num_tuple Number of tuples in the ranking
-     * @param num_attribute Number of ranking attributes
-     * @return Tuples to rank
-    */
-    private static ArrayList<Tuple> getTuples(ArrayList<Tuple> relation, int num_tuple, int num_attribute) {
-        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-        for (int i = 0; i < num_tuple; i++) {
-            Tuple tuple = new Tuple(new String[num_attribute + 1]);
-            for (int j = 0; j <= num_attribute; j++) {
-                tuple.values[j] = relation.get(i).values[j];
-            }
-            tuples.add(tuple);
-        }
-        return tuples;
-    }
-    
     /** 
      * Experiment: impact on ranking problems
      * Corresponding to Section 5.2
@@ -54,7 +33,7 @@ public class Experiment_numerical {
         int m = 8;
         int k = 8;
 
-        GurobiSolver gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, 1e-4 / 2, 1e-4 / 2);
+        GurobiSolver gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, 1e-4 / 2, 1e-4 / 2);
         
         long start, end;
         RankingMeasurer rm;
@@ -70,7 +49,7 @@ public class Experiment_numerical {
         System.out.println("Running time: " + (end - start) + "ms");
         System.out.println();
 
-        gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, 1e-4 / 2, 0);
+        gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, 1e-4 / 2, 0);
 
         start = System.currentTimeMillis();
         gs.optimize_tree(k, 0);
@@ -80,7 +59,7 @@ public class Experiment_numerical {
         System.out.println("Running time: " + (end - start) + "ms");
         System.out.println();
 
-        gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, 1e-4 / 2, 1e-4 / 2);
+        gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, 1e-4 / 2, 1e-4 / 2);
 
         start = System.currentTimeMillis();
         gs.optimize_tree(k, 0);
@@ -121,7 +100,7 @@ public class Experiment_numerical {
 
             System.out.println("Original");
             System.out.println("Gap is " + epsilon1);
-            gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, precision, epsilon1); 
+            gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, precision, epsilon1); 
             long start = System.currentTimeMillis();
             gs.optimize_position(k, 0);
             execution_time[0] += System.currentTimeMillis() - start;
@@ -141,7 +120,7 @@ public class Experiment_numerical {
             // for (epsilon1 = 1e-10; epsilon1 <= 1e-1; epsilon1 *= Math.pow(10, 0.1)) {
             for (epsilon1 = 1e-10; epsilon1 <= 1e-1; epsilon1 *= 10) {
                 System.out.println("Epsilon is " + epsilon1);
-                gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, precision, epsilon1); 
+                gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, precision, epsilon1); 
 
                 start = System.currentTimeMillis();
                 gs.optimize_position(k, 0);
@@ -179,7 +158,7 @@ public class Experiment_numerical {
             for (epsilon1 = 1e-10; epsilon1 <= 1e-1; epsilon1 *= 10) {
                 for (double epsilon2 = 1e-10; epsilon2 <= 1e-1; epsilon2 *= 10) {
                     System.out.println("Epsilon1 is " + epsilon1 + " epsilon2 is " + epsilon2);
-                    gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, precision, epsilon1, epsilon2); 
+                    gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, precision, epsilon1, epsilon2); 
 
                     start = System.currentTimeMillis();
                     gs.optimize_position(k, 0);
@@ -223,7 +202,7 @@ public class Experiment_numerical {
             while (depth < 3) {
                 for (epsilon1 = min; epsilon1 <= max; epsilon1 *= grid_size) {
                     System.out.println("Epsilon is " + epsilon1);
-                    gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, precision, epsilon1); 
+                    gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, precision, epsilon1); 
 
                     start = System.currentTimeMillis();
                     gs.optimize_position(k, 0);
@@ -307,7 +286,7 @@ public class Experiment_numerical {
             int j = 0;
             for (double epsilon1 = 1e-10; epsilon1 <= 1e-1; epsilon1 *= 10) {
                 System.out.println("Epsilon is " + epsilon1);
-                gs = new GurobiSolver(getTuples(relation.getAll(), n, m), given_ranking, precision, epsilon1); 
+                gs = new GurobiSolver(relation.getColumns().view(n, m), given_ranking, precision, epsilon1); 
 
                 gs.optimize_position(k, 0);
                 RankingMeasurer rm = new RankingMeasurer(gs.getRanking(k), given_ranking);
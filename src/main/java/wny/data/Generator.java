@@ -1,8 +1,22 @@
 package wny.data;
 
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import wny.entities.ColumnStore;
+import wny.util.BinaryParser;
 
 /** 
  * Synthetic generator
@@ -11,12 +25,21 @@ import java.util.Random;
  * In the correlated dataset, a tuple with a high (low) value in one ranking attribute is likely to also have high (low) values for the others. 
  * In the anti-correlated dataset, a tuple with a high (low) value in one ranking attribute is likely to 
  * also have high (low) values for half of the other attributes, but more likely to receive low (high) values for the other half.
+ * With a seed, the tuples are generated in fixed-size chunks in parallel, each chunk with its own SplittableRandom stream,
+ * so the same seed gives the same data no matter how many threads are used.
  * @author Zixuan Chen
 */
 public class Generator {
     public int num_tuple;
     public int num_attribute;
     public String filename;
+    public int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /** 
+     * The number of tuples generated from one random stream
+     * It does not depend on the number of threads, so the data only depend on the seed
+    */
+    private static final int CHUNK_SIZE = 1 << 16;
 
     public Generator (int num_tuple, int num_attribute, String filename) {
 		this.num_tuple = num_tuple;
@@ -92,4 +115,165 @@ public class Generator {
         out.write("End\n");
         out.close();
     }
+
+    /** 
+     * Get a correlated value based on the input value
+     * @param a The input value
+     * @param r The random stream to draw from
+     * @return A correlated value to the input value
+    */
+    private static double getCorrelated(double a, SplittableRandom r) {
+        double v = (r.nextDouble() - 0.5) / 5 + a;
+        if (v > 1) {
+            v = 1 - r.nextDouble() / 100;
+        } else if (v < 0) {
+            v = r.nextDouble() / 100;
+        }
+        return v;
+    }
+
+    /** 
+     * Generate the values of a range of tuples, rounded to two decimals like the csv files
+     * @param distribution The distribution of the data
+     * @param r The random stream of this range
+     * @param columns The values of each attribute to fill
+     * @param from The first tuple of the range
+     * @param to The tuple after the range
+    */
+    private void generate(String distribution, SplittableRandom r, double[][] columns, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (distribution.equals("uniform")) {
+                for (int j = 0; j < num_attribute; j++) {
+                    columns[j][i] = r.nextDouble();
+                }
+            } else if (distribution.equals("correlated")) {
+                double v = r.nextDouble();
+                for (int j = 0; j < num_attribute; j++) {
+                    columns[j][i] = getCorrelated(v, r);
+                }
+            } else if (distribution.equals("anti-correlated")) {
+                double v = r.nextDouble();
+                for (int j = 0; j < num_attribute; j++) {
+                    columns[j][i] = (j % 2 == 0) ? getCorrelated(v, r) : 1 - getCorrelated(v, r);
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown distribution " + distribution);
+            }
+            for (int j = 0; j < num_attribute; j++) {
+                columns[j][i] = Math.round(columns[j][i] * 1000) / 100.0;
+            }
+        }
+    }
+
+    /** 
+     * Generate synthetic data in parallel
+     * @param distribution The distribution of the data
+     * @param seed The seed of the random streams
+     * @return The values of each attribute
+    */
+    public double[][] generate(String distribution, long seed) throws IOException {
+        double[][] columns = new double[num_attribute][num_tuple];
+        // The streams are split in the order of the chunks, independent of the scheduling of the threads
+        SplittableRandom root = new SplittableRandom(seed);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int from = 0; from < num_tuple; from += CHUNK_SIZE) {
+            final int start = from, end = Math.min(from + CHUNK_SIZE, num_tuple);
+            final SplittableRandom r = root.split();
+            tasks.add(() -> {
+                generate(distribution, r, columns, start, end);
+                return null;
+            });
+        }
+        run(tasks);
+        return columns;
+    }
+
+    /** 
+     * Create synthetic data with a seed, in parallel
+     * The values are the same in both formats
+     * @param distribution The distribution of the data
+     * @param seed The seed of the random streams
+     * @param binary Whether to write the binary columnar format instead of a csv file
+     * @see wny.util.BinaryParser
+    */
+    public void create(String distribution, long seed, boolean binary) throws IOException {
+        double[][] columns = generate(distribution, seed);
+
+        String[] schema = new String[num_attribute + 1];
+        schema[0] = "ID";
+        for (int j = 1; j <= num_attribute; j++) {
+            schema[j] = "Attribute" + j;
+        }
+
+        if (binary) {
+            String[] ids = new String[num_tuple];
+            for (int i = 0; i < num_tuple; i++) {
+                ids[i] = String.valueOf(i + 1);
+            }
+            BinaryParser.write("Data", schema, new ColumnStore(ids, columns), filename);
+            return;
+        }
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16);
+        try {
+            out.write(("Relation Data\n" + String.join(",", schema) + "\n").getBytes(StandardCharsets.US_ASCII));
+            // Format the chunks in parallel and write them in order, a bounded number of chunks at a time
+            int wave = Math.max(1, 2 * parallelism);
+            for (int first = 0; first < num_tuple; first += wave * CHUNK_SIZE) {
+                List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>();
+                for (int from = first; from < Math.min(first + wave * CHUNK_SIZE, num_tuple); from += CHUNK_SIZE) {
+                    final int start = from, end = Math.min(from + CHUNK_SIZE, num_tuple);
+                    tasks.add(() -> format(columns, start, end));
+                }
+                for (byte[] chunk : run(tasks)) {
+                    out.write(chunk);
+                }
+            }
+            out.write("End\n".getBytes(StandardCharsets.US_ASCII));
+        } finally {
+            out.close();
+        }
+    }
+
+    /** 
+     * Format a range of tuples as csv lines, with two decimals like String.format("%.2f")
+     * @return The bytes of the lines
+    */
+    private byte[] format(double[][] columns, int from, int to) {
+        StringBuilder str = new StringBuilder((to - from) * (num_attribute * 6 + 8));
+        for (int i = from; i < to; i++) {
+            str.append(i + 1);
+            for (int j = 0; j < num_attribute; j++) {
+                long cents = Math.round(columns[j][i] * 100);
+                str.append(',').append(cents / 100).append('.');
+                if (cents % 100 < 10) str.append('0');
+                str.append(cents % 100);
+            }
+            str.append('\n');
+        }
+        return str.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** 
+     * Run the tasks on a fork-join pool
+     * @return The results of the tasks in order
+    */
+    private <T> List<T> run(List<Callable<T>> tasks) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
 }
@@ -1,6 +1,7 @@
 package wny.entities;
 
-import java.util.ArrayList;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.javatuples.Pair;
 
@@ -15,6 +16,11 @@ public class Cell implements Comparable<Cell> {
     private int num_attributes;
     public int upper_bound;
     public int lower_bound;
+    // The confidence intervals of the bounds when a CellBounds estimated them from a sample, null when they are exact
+    public Pair<Integer, Integer> upper_interval;
+    public Pair<Integer, Integer> lower_interval;
+    // The relationship with the hyperplane of each pair, set by the CellBounds which bounded the cell
+    public PairSignature signature;
 
     /** 
      * @param center The center of the cell
@@ -26,110 +32,49 @@ public class Cell implements Comparable<Cell> {
         num_attributes = center.length;
     }
 
-    /** 
-     * @return all corner points of the cell
-    */
-    private double[][] getCorners() {
-        double[][] corners= {{center[0] + size / 2}, {center[0] - size / 2}};
-        //  = new double[(int) Math.pow(2, num_attributes)][num_attributes];
-
-        for (int i = 2; i <= num_attributes; i++) {
-            double[][] previous = corners;
-            corners = new double[(int) Math.pow(2, i)][num_attributes];
-
-            int length = previous.length;
-            for (int j = 0; j < length; j++) {
-                for (int l = 0; l < i - 1; l++) {
-                    corners[j][l] = previous[j][l];
-                    corners[j + length][l] = previous[j][l]; 
-                }
-                corners[j][i - 1] = center[i - 1] + size / 2;
-                corners[j + length][i - 1] = center[i - 1] - size / 2;
-            }
-        }
-
-        return corners;
-    }
-
-
     /** 
      * Return the relationship between one hyperplane (inequality with >= 0) and the cell
      * @return 1 for the inequality is always true, -1 for the inequality is always false, 0 for two relationships both exist in the cell
     */
-    private int relationship_check(double[] inequality) {
-        double[][] corners = getCorners();
-
-        boolean win = false, lost = false;
-        
-        for (int i = 0; i < corners.length; i++) {
-            double value = 0;
-            for (int j = 0; j < num_attributes; j++) {
-                value += inequality[j] * corners[i][j];
+    protected int relationship_check(double[] inequality) {
+        // The lowest value is at the corner with the low side of each attribute with a positive coefficient and the high side of the others,
+        // and the highest value at the opposite corner, so the 2 ^ num_attributes corners need not be checked
+        double lowest = 0, highest = 0;
+        for (int j = 0; j < num_attributes; j++) {
+            double low = center[j] - size / 2, high = center[j] + size / 2;
+            if (inequality[j] >= 0) {
+                lowest += inequality[j] * low;
+                highest += inequality[j] * high;
+            } else {
+                lowest += inequality[j] * high;
+                highest += inequality[j] * low;
             }
-            if (value >= 0) win = true;
-            else lost = true;
-            if (win && lost) return 0;
         }
-        if (win) return 1;
-        else return -1;
+        if (lowest >= 0) return 1;
+        else if (highest < 0) return -1;
+        else return 0;
     }
 
     /** 
      * Get the bounds of the error in this cell
-     * @param tuples All tuples of a relation
+     * @param data All tuples of a relation in column-major order
      * @param given_ranking The given ranking
      * @param k
      * @param gap A gap for strict wins
+     * Cells of the same search should share one CellBounds instead, which does the work not depending on the cell once
      * @return a pair of upper bound and lower bound for the cell
+     * @see CellBounds
     */
-    public Pair<Integer, Integer> getBounds(ArrayList<Tuple> tuples, int[] given_ranking, int k, double gap) {
-        int num_tuples = tuples.size(), upper = 0, lower = 0;
-
-        for (int i = 0; i < k; i++) {
-            int num_dominatees = 0, num_dominators = 0;
-            for (int j = 0; j < num_tuples; j++) {
-                if (i != j) {
-                    int comparison = tuples.get(i).isDominating(tuples.get(j), gap);
-                    if (comparison == 0) {
-                        double[] inequality = new double[num_attributes];
-                        for (int l = 0; l < num_attributes; l++) {
-                            inequality[l] = Double.valueOf(tuples.get(i).values[l + 1]) - Double.valueOf(tuples.get(j).values[l + 1]);
-                        }
-                        int cell_comparison = relationship_check(inequality);
-                        if (cell_comparison == 1) {
-                            num_dominatees++;
-                        } else if (cell_comparison == -1) {
-                            num_dominators++;
-                        }
-                    } else if (comparison == 1) {
-                        num_dominatees++;
-                    } else if (comparison == -1) {
-                        num_dominators++;
-                    }
-                }
-            }
-            int high = num_dominators + 1;
-            int low = num_tuples - num_dominatees;
-
-            if (given_ranking[i] < high) {
-                lower += high - given_ranking[i];
-                upper += low - given_ranking[i];
-            } else if (given_ranking[i] > low) {
-                lower += given_ranking[i] - low;
-                upper += given_ranking[i] - high;
-            } else {
-                // lower += 0;
-                upper += Math.max(given_ranking[i] - high, low - given_ranking[i]);
-            }
-        }
-
-        upper_bound = upper;
-        lower_bound = lower;
-        return new Pair<Integer,Integer>(upper, lower);
+    public Pair<Integer, Integer> getBounds(ColumnStore data, int[] given_ranking, int k, double gap) {
+        Pair<Integer, Integer> bounds = new CellBounds(data, given_ranking, k, gap).bound(this);
+        // No other cell shares the CellBounds, so the signature is of no use
+        signature = null;
+        return bounds;
     }
 
     /** 
      * Divide the cell into (1 / divisor) ^ num_attributes smaller cells 
+     * CAUTION: All divisor ^ num_attributes centers are allocated; use simplex_cells for the cells intersecting the simplex
      * @return their cell centers
     */
     public double[][] divide(int divisor) {
@@ -156,6 +101,18 @@ public class Cell implements Comparable<Cell> {
         return centers;
     }
 
+    /** 
+     * Divide the cell into divisor parts on each attribute as divide does, but only stream the smaller cells intersecting the simplex
+     * The cells are enumerated lazily, and a parallel stream splits them for several threads
+     * @param divisor The number of parts on each attribute
+     * @param cell_size The size of the smaller cells
+     * @return the smaller cells in the order of divide
+     * @see SimplexCells
+    */
+    public Stream<Cell> simplex_cells(int divisor, double cell_size) {
+        return StreamSupport.stream(new SimplexCells(this, divisor, cell_size), false);
+    }
+
     /**
      * @return the center of the cell
      */
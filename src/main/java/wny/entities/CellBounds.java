@@ -0,0 +1,462 @@
+package wny.entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+
+import org.javatuples.Pair;
+
+/**
+ * The bounds of the error of cells for one given ranking, shared by all cells of a search
+ * The domination of each of the top-k tuples over the groups of duplicates does not depend on the cell, so it is counted once,
+ * and only the hyperplanes of the pairs which no domination decides are kept, with their difference vectors, to be checked on each cell
+ * The hyperplanes are kept for k times the number of groups in the worst case, and never change, so threads can bound cells at the same time
+ * A bounded cell carries the signature of its pairs, from which the bounds are counted by popcounts,
+ * and a neighboring or smaller cell is bounded from it by checking again only the pairs which may change
+ * For a huge relation, the bounds can be estimated from a random sample of the tuples after the top-k ones instead,
+ * which makes bounding a cell independent of the number of tuples, with a confidence interval for each bound
+ * @see Cell#getBounds
+ * @see PairSignature
+*/
+public class CellBounds {
+    private int num_tuples;
+    private int num_attributes;
+    private int k;
+    private int[] given_ranking;
+    // [i] The number of tuples which tuple i dominates and which dominate tuple i
+    private int[] num_dominatees;
+    private int[] num_dominators;
+    // [i] The number of the first pair of tuple i, and the total number of pairs at the end
+    // The pairs of tuple i are those of the groups which tuple i neither dominates nor is dominated by
+    private int[] offsets;
+    private int num_pairs;
+    // [pair] The difference of the tuple and the representative of the group
+    private double[][] differences;
+    // [pair] The number of tuples of the group other than the tuple
+    private int[] multiplicities;
+    // [i] The pairs of tuple i whose group has other tuples, which count more than their bit
+    private int[][] heavy_pairs;
+    // [pair] The attributes with a positive and a negative difference, as bits
+    private long[] positive;
+    private long[] negative;
+    // [i] The first pair of tuple i with a sampled tuple, the pairs before it being counted exactly
+    private int[] sampled_offsets;
+    // [i] The number of sampled tuples which tuple i dominates and which dominate tuple i
+    private int[] sampled_dominatees;
+    private int[] sampled_dominators;
+    // The number of sampled tuples, 0 when the bounds are exact
+    private int sample_size;
+    // The number of standard errors on each side of an estimated count in its confidence interval
+    private double confidence;
+
+    /**
+     * @param data All tuples of a relation in column-major order
+     * @param given_ranking The given ranking
+     * @param k
+     * @param gap A gap for strict wins
+    */
+    public CellBounds(ColumnStore data, int[] given_ranking, int k, double gap) {
+        this.given_ranking = given_ranking;
+        this.k = k;
+        num_tuples = data.get_size();
+        num_attributes = data.get_num_attributes();
+        DuplicateGroups groups = data.getGroups();
+        num_dominatees = new int[k];
+        num_dominators = new int[k];
+        offsets = new int[k + 1];
+        sampled_offsets = new int[k];
+        ArrayList<double[]> pair_differences = new ArrayList<double[]>();
+        ArrayList<Integer> pair_multiplicities = new ArrayList<Integer>();
+
+        for (int i = 0; i < k; i++) {
+            // Tuples with the same values share one hyperplane, which is counted once per tuple
+            for (int g = 0; g < groups.get_size(); g++) {
+                int j = groups.getRepresentative(g), multiplicity = groups.getMultiplicity(g, i);
+                if (multiplicity > 0) {
+                    int comparison = classify(data, i, j, gap, multiplicity, pair_differences, pair_multiplicities);
+                    if (comparison == 1) num_dominatees[i] += multiplicity;
+                    else if (comparison == -1) num_dominators[i] += multiplicity;
+                }
+            }
+            offsets[i + 1] = pair_differences.size();
+            sampled_offsets[i] = offsets[i + 1];
+        }
+        index(pair_differences, pair_multiplicities);
+    }
+
+    /**
+     * Estimate the bounds from a sample of the tuples after the top-k ones, drawn without replacement:
+     * the pairs of each top-k tuple with the other top-k tuples are counted exactly, and those with the sampled tuples
+     * are counted and scaled up to all tuples after the top-k ones, so the work does not depend on the number of tuples
+     * Each estimated count has a confidence interval of the given number of standard errors of a sampled proportion,
+     * and the bounds of a cell have the intervals of the most optimistic and pessimistic counts
+     * @param data All tuples of a relation in column-major order
+     * @param given_ranking The given ranking
+     * @param k
+     * @param gap A gap for strict wins
+     * @param sample_size The number of sampled tuples, all tuples after the top-k ones if there are fewer
+     * @param confidence The number of standard errors on each side of an estimated count, such as 2 for about 95%
+     * @param seed The seed of the sample
+    */
+    public CellBounds(ColumnStore data, int[] given_ranking, int k, double gap, int sample_size, double confidence, long seed) {
+        if (sample_size <= 0) {
+            throw new IllegalArgumentException("A sample needs at least one tuple, not " + sample_size);
+        }
+        this.given_ranking = given_ranking;
+        this.k = k;
+        this.confidence = confidence;
+        num_tuples = data.get_size();
+        num_attributes = data.get_num_attributes();
+        num_dominatees = new int[k];
+        num_dominators = new int[k];
+        sampled_dominatees = new int[k];
+        sampled_dominators = new int[k];
+        offsets = new int[k + 1];
+        sampled_offsets = new int[k];
+        ArrayList<double[]> pair_differences = new ArrayList<double[]>();
+        ArrayList<Integer> pair_multiplicities = new ArrayList<Integer>();
+
+        int[] sample = sample(k, num_tuples, sample_size, new SplittableRandom(seed));
+        this.sample_size = sample.length;
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < k; j++) {
+                if (j == i) continue;
+                int comparison = classify(data, i, j, gap, 1, pair_differences, pair_multiplicities);
+                if (comparison == 1) num_dominatees[i]++;
+                else if (comparison == -1) num_dominators[i]++;
+            }
+            sampled_offsets[i] = pair_differences.size();
+            for (int j : sample) {
+                int comparison = classify(data, i, j, gap, 1, pair_differences, pair_multiplicities);
+                if (comparison == 1) sampled_dominatees[i]++;
+                else if (comparison == -1) sampled_dominators[i]++;
+            }
+            offsets[i + 1] = pair_differences.size();
+        }
+        index(pair_differences, pair_multiplicities);
+    }
+
+    /**
+     * Draw a sample without replacement by Floyd's algorithm, which takes as many draws as sampled tuples
+     * @param from The first tuple which may be sampled
+     * @param to The tuple after the last one which may be sampled
+     * @param sample_size The number of sampled tuples
+     * @param random The random numbers
+     * @return The sampled tuples in increasing order
+    */
+    private static int[] sample(int from, int to, int sample_size, SplittableRandom random) {
+        int population = Math.max(to - from, 0), size = Math.min(Math.max(sample_size, 0), population);
+        HashSet<Integer> chosen = new HashSet<Integer>();
+        for (int j = population - size; j < population; j++) {
+            int t = random.nextInt(j + 1);
+            chosen.add(chosen.contains(t) ? j : t);
+        }
+        int[] sample = new int[size];
+        int s = 0;
+        for (int t : chosen) sample[s++] = from + t;
+        Arrays.sort(sample);
+        return sample;
+    }
+
+    /**
+     * Classify a pair by domination, and keep its hyperplane when domination does not decide it
+     * @param data All tuples of a relation in column-major order
+     * @param i The index of a top-k tuple
+     * @param j The index of another tuple
+     * @param gap A gap for strict wins
+     * @param multiplicity The number of tuples with the values of tuple j, other than tuple i
+     * @param pair_differences The differences of the kept pairs, filled in place
+     * @param pair_multiplicities The multiplicities of the kept pairs, filled in place
+     * @return 1 if tuple i dominates tuple j, -1 if tuple i is dominated by tuple j, 0 for a kept pair
+    */
+    private static int classify(ColumnStore data, int i, int j, double gap, int multiplicity, ArrayList<double[]> pair_differences, ArrayList<Integer> pair_multiplicities) {
+        int comparison = data.isDominating(i, j, gap);
+        if (comparison == 0) {
+            pair_differences.add(data.difference(i, j));
+            pair_multiplicities.add(multiplicity);
+        }
+        return comparison;
+    }
+
+    /**
+     * Lay out the kept pairs in arrays with the signs of their differences and the pairs of each tuple counting more than their bit
+     * @param pair_differences The differences of the kept pairs, in the order of the offsets
+     * @param pair_multiplicities The multiplicities of the kept pairs
+    */
+    private void index(ArrayList<double[]> pair_differences, ArrayList<Integer> pair_multiplicities) {
+        num_pairs = offsets[k];
+        differences = pair_differences.toArray(new double[num_pairs][]);
+        multiplicities = new int[num_pairs];
+        positive = new long[num_pairs];
+        negative = new long[num_pairs];
+        for (int pair = 0; pair < num_pairs; pair++) {
+            multiplicities[pair] = pair_multiplicities.get(pair);
+            for (int j = 0; j < num_attributes && j < 64; j++) {
+                if (differences[pair][j] > 0) positive[pair] |= 1L << j;
+                else if (differences[pair][j] < 0) negative[pair] |= 1L << j;
+            }
+        }
+        heavy_pairs = new int[k][];
+        for (int i = 0; i < k; i++) {
+            int num_heavy = 0;
+            for (int pair = offsets[i]; pair < offsets[i + 1]; pair++) {
+                if (multiplicities[pair] > 1) num_heavy++;
+            }
+            heavy_pairs[i] = new int[num_heavy];
+            for (int pair = offsets[i], h = 0; pair < offsets[i + 1]; pair++) {
+                if (multiplicities[pair] > 1) heavy_pairs[i][h++] = pair;
+            }
+        }
+    }
+
+    /**
+     * Get the bounds of the error in a cell, and set them and the signature in the cell
+     * @param cell A cell
+     * @return a pair of upper bound and lower bound for the cell
+    */
+    public Pair<Integer, Integer> bound(Cell cell) {
+        return bound(cell, signature(cell, null));
+    }
+
+    /**
+     * Get the bounds of the error in a cell, and set them and the signature in the cell
+     * The hyperplanes which cross the cell are checked again by an exact check, such as one over the part of the cell in the simplex of weights
+     * @param cell A cell
+     * @param exact The relationship between a hyperplane (inequality with >= 0) and the cell as Cell.relationship_check, null for none
+     * @return a pair of upper bound and lower bound for the cell
+    */
+    public Pair<Integer, Integer> bound(Cell cell, ToIntFunction<double[]> exact) {
+        return bound(cell, signature(cell, exact));
+    }
+
+    /**
+     * Get the bounds of the error in a cell from the signature of a neighboring or larger cell, and set them and the signature in the cell
+     * The pairs undetermined in the previous cell are checked again, and so are the pairs it decides unless the corner of the cell
+     * where the hyperplane is the closest to changing sides lies in the previous cell, which only needs the signs of the difference
+     * Every pair which a cell inside the previous one can change is checked, so a cell inside it checks only the undetermined pairs
+     * @param cell A cell
+     * @param previous A cell bounded before, whose signature is reused when this CellBounds made it
+     * @return a pair of upper bound and lower bound for the cell
+    */
+    public Pair<Integer, Integer> rebound(Cell cell, Cell previous) {
+        PairSignature known = previous.signature;
+        if (known == null || known.owner != this) return bound(cell);
+
+        // Whether the low side and the high side of each attribute of a box are in the previous box
+        boolean boxes = !(cell instanceof SimplexCell) && !(previous instanceof SimplexCell) && num_attributes <= 64;
+        long low_inside = 0, high_inside = 0;
+        if (boxes) {
+            for (int j = 0; j < num_attributes; j++) {
+                double low = cell.getCenter()[j] - cell.size() / 2, high = cell.getCenter()[j] + cell.size() / 2;
+                double previous_low = previous.getCenter()[j] - previous.size() / 2, previous_high = previous.getCenter()[j] + previous.size() / 2;
+                if (low >= previous_low && low <= previous_high) low_inside |= 1L << j;
+                if (high >= previous_low && high <= previous_high) high_inside |= 1L << j;
+            }
+        }
+        boolean inside = cell instanceof SimplexCell && previous instanceof SimplexCell && ((SimplexCell) previous).contains((SimplexCell) cell);
+
+        boolean all_inside = inside || (boxes && low_inside == full(num_attributes) && high_inside == full(num_attributes));
+
+        PairSignature signature = new PairSignature(this, num_pairs);
+        for (int w = 0; w < signature.wins.length; w++) {
+            long wins = known.wins[w], losses = known.losses[w];
+            long recheck = ~(wins | losses);
+            if (!all_inside) {
+                if (!boxes) {
+                    recheck = -1L;
+                } else {
+                    // The lowest value is at the low side of the attributes with a positive difference and the high side of the others,
+                    // and the highest value at the opposite corner, so a decided pair is kept when that corner is in the previous cell
+                    for (long bits = wins; bits != 0; bits &= bits - 1) {
+                        int pair = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        if ((positive[pair] & ~low_inside) != 0 || (negative[pair] & ~high_inside) != 0) recheck |= bits & -bits;
+                    }
+                    for (long bits = losses; bits != 0; bits &= bits - 1) {
+                        int pair = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        if ((positive[pair] & ~high_inside) != 0 || (negative[pair] & ~low_inside) != 0) recheck |= bits & -bits;
+                    }
+                }
+            }
+            if (w == signature.wins.length - 1 && (num_pairs & 63) != 0) recheck &= -1L >>> (64 - (num_pairs & 63));
+            wins &= ~recheck;
+            losses &= ~recheck;
+            for (long bits = recheck; bits != 0; bits &= bits - 1) {
+                int status = cell.relationship_check(differences[(w << 6) + Long.numberOfTrailingZeros(bits)]);
+                if (status == 1) wins |= bits & -bits;
+                else if (status == -1) losses |= bits & -bits;
+            }
+            signature.wins[w] = wins;
+            signature.losses[w] = losses;
+        }
+        return bound(cell, signature);
+    }
+
+    /**
+     * @param cell A cell
+     * @param exact The relationship between a hyperplane and the cell for the pairs which the cell does not decide, null for none
+     * @return The signature of the cell
+    */
+    private PairSignature signature(Cell cell, ToIntFunction<double[]> exact) {
+        PairSignature signature = new PairSignature(this, num_pairs);
+        for (int pair = 0; pair < num_pairs; pair++) {
+            int cell_comparison = cell.relationship_check(differences[pair]);
+            if (cell_comparison == 0 && exact != null) {
+                cell_comparison = exact.applyAsInt(differences[pair]);
+            }
+            signature.set(pair, cell_comparison);
+        }
+        return signature;
+    }
+
+    /**
+     * Count the pairs of the signature, and set the bounds and the signature in the cell
+     * @param cell A cell
+     * @param signature The signature of the cell
+     * @return a pair of upper bound and lower bound for the cell
+    */
+    private Pair<Integer, Integer> bound(Cell cell, PairSignature signature) {
+        // The bounds, then the ends of their confidence intervals when the counts are estimated
+        double upper = 0, lower = 0, upper_lowest = 0, upper_highest = 0, lower_lowest = 0, lower_highest = 0;
+
+        for (int i = 0; i < k; i++) {
+            // The highest and the lowest position of tuple i in the cell
+            double high = num_dominators[i] + count(signature.losses, i) + 1;
+            double low = num_tuples - num_dominatees[i] - count(signature.wins, i);
+            double high_spread = 0, low_spread = 0;
+            if (sample_size > 0) {
+                int beating = sampled_dominators[i] + PairSignature.count(signature.losses, sampled_offsets[i], offsets[i + 1]);
+                int beaten = sampled_dominatees[i] + PairSignature.count(signature.wins, sampled_offsets[i], offsets[i + 1]);
+                high += scaled(beating);
+                low -= scaled(beaten);
+                high_spread = spread(beating);
+                low_spread = spread(beaten);
+            }
+
+            lower += lower(given_ranking[i], high, low);
+            upper += upper(given_ranking[i], high, low);
+            // The lower bound grows with the highest position and shrinks with the lowest one, and the upper bound the other way
+            lower_lowest += lower(given_ranking[i], high - high_spread, low + low_spread);
+            lower_highest += lower(given_ranking[i], high + high_spread, low - low_spread);
+            upper_lowest += upper(given_ranking[i], high + high_spread, low - low_spread);
+            upper_highest += upper(given_ranking[i], high - high_spread, low + low_spread);
+        }
+
+        cell.upper_bound = (int) Math.round(upper);
+        cell.lower_bound = (int) Math.round(lower);
+        if (sample_size > 0) {
+            cell.upper_interval = new Pair<Integer,Integer>((int) Math.floor(upper_lowest), (int) Math.ceil(upper_highest));
+            cell.lower_interval = new Pair<Integer,Integer>((int) Math.floor(lower_lowest), (int) Math.ceil(lower_highest));
+        } else {
+            cell.upper_interval = null;
+            cell.lower_interval = null;
+        }
+        cell.signature = signature;
+        return new Pair<Integer,Integer>(cell.upper_bound, cell.lower_bound);
+    }
+
+    /**
+     * @param given The given position of a tuple
+     * @param high The highest position of the tuple
+     * @param low The lowest position of the tuple
+     * @return The smallest error of the tuple, its distance to the range of positions
+    */
+    private static double lower(int given, double high, double low) {
+        return Math.max(Math.max(high - given, given - low), 0);
+    }
+
+    /**
+     * @param given The given position of a tuple
+     * @param high The highest position of the tuple
+     * @param low The lowest position of the tuple
+     * @return The largest error of the tuple, its distance to the farther end of the range of positions
+    */
+    private static double upper(int given, double high, double low) {
+        return Math.max(given - high, low - given);
+    }
+
+    /**
+     * @param count The number of sampled tuples
+     * @return The estimated number of tuples after the top-k ones
+    */
+    private double scaled(int count) {
+        return count * (double) (num_tuples - k) / sample_size;
+    }
+
+    /**
+     * The standard error of a proportion sampled without replacement, with one success and one failure added
+     * so that a count of none or of all sampled tuples still has an interval
+     * @param count The number of sampled tuples
+     * @return The half width of the confidence interval of the estimated number of tuples after the top-k ones
+    */
+    private double spread(int count) {
+        int population = num_tuples - k;
+        double p = (count + 1.0) / (sample_size + 2);
+        double correction = (population - sample_size) / (double) Math.max(population - 1, 1);
+        return confidence * population * Math.sqrt(p * (1 - p) / sample_size * correction);
+    }
+
+    /**
+     * @param bits The wins or the losses of a signature
+     * @param i The index of a tuple
+     * @return The number of tuples in the pairs of the tuple whose bits are set, without the sampled ones
+    */
+    private int count(long[] bits, int i) {
+        int count = PairSignature.count(bits, offsets[i], sampled_offsets[i]);
+        for (int pair : heavy_pairs[i]) {
+            if ((bits[pair >>> 6] & (1L << pair)) != 0) count += multiplicities[pair] - 1;
+        }
+        return count;
+    }
+
+    /**
+     * @return The memory of the signature of a cell, in bytes
+    */
+    public long signature_bytes() {
+        return 2L * Long.BYTES * ((num_pairs + 63) >>> 6);
+    }
+
+    /**
+     * @param length A number of attributes
+     * @return The bits of the attributes
+    */
+    private static long full(int length) {
+        return (length >= 64) ? -1L : (1L << length) - 1;
+    }
+
+    /**
+     * Get the bounds of the error in several cells on the threads, and set them and the signatures in the cells
+     * @param pool The threads
+     * @param cells The cells
+     * @param previous A cell bounded before whose signature the cells are bounded from, null for none
+     * @see #rebound
+    */
+    public void bound_all(ForkJoinPool pool, List<? extends Cell> cells, Cell previous) {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (Cell cell : cells) {
+            tasks.add(() -> {
+                if (previous == null) bound(cell);
+                else rebound(cell, previous);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while bounding cells", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package wny.entities;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+
+/**
+ * A column-major store of the ranking attributes of a relation
+ * The string values of the tuples are parsed only once, into one double array per attribute together with an id column,
+ * so that the loops of the solvers read primitive values instead of parsing strings again and again
+ * Attribute 0 of the store corresponds to the value at index 1 of a tuple, since index 0 of a tuple is its id
+ * A store can be a view of a range of tuples and a list of attributes of another store, sharing its storage
+ * The exact decimal of a value is rebuilt from its double, except for the few values whose double does not give their string back,
+ * e.g. with more than 15 significant digits or out of the range of doubles, whose decimals are kept next to the columns
+*/
+public class ColumnStore {
+    // A decimal with at most this many significant digits is the only one of its length parsing to its double, if the double is normal
+    private static final MathContext SHORT_DECIMAL = new MathContext(15);
+
+    protected String[] ids;
+    protected double[][] columns;
+    // [attribute][tuple] The decimals which are not rebuilt from the doubles, null for an attribute without any
+    protected BigDecimal[][] decimals;
+    protected int offset;
+    protected int num_tuples;
+    protected int num_attributes;
+    private DuplicateGroups groups;
+
+    /**
+     * Used by subclasses which keep their values outside of heap arrays
+     * @param num_tuples Number of tuples
+     * @param num_attributes Number of ranking attributes
+    */
+    protected ColumnStore(int num_tuples, int num_attributes) {
+        this.num_tuples = num_tuples;
+        this.num_attributes = num_attributes;
+    }
+
+    /**
+     * CAUTION: The object will contain references to the passed arrays
+     * No deep copy is made
+     * @param ids The id of each tuple
+     * @param columns The values of each attribute, one array per attribute
+    */
+    public ColumnStore(String[] ids, double[][] columns) {
+        this(ids, columns, null);
+    }
+
+    /**
+     * CAUTION: The object will contain references to the passed arrays
+     * No deep copy is made
+     * @param ids The id of each tuple
+     * @param columns The values of each attribute, one array per attribute
+     * @param decimals The decimals of the values which are not rebuilt from the doubles, null where there are none
+     * @see #decimal(String, double)
+    */
+    public ColumnStore(String[] ids, double[][] columns, BigDecimal[][] decimals) {
+        this(ids, columns, decimals, 0, ids.length);
+    }
+
+    /**
+     * @param ids The id of each tuple
+     * @param columns The values of each attribute, one array per attribute
+     * @param decimals The decimals of the values which are not rebuilt from the doubles, null where there are none
+     * @param offset The index in the arrays of the first tuple
+     * @param num_tuples Number of tuples from the offset on
+    */
+    protected ColumnStore(String[] ids, double[][] columns, BigDecimal[][] decimals, int offset, int num_tuples) {
+        this.ids = ids;
+        this.columns = columns;
+        this.decimals = decimals;
+        this.offset = offset;
+        this.num_tuples = num_tuples;
+        num_attributes = columns.length;
+    }
+
+    /**
+     * Parse all attributes of the tuples
+     * @param tuples The tuples to be stored, with the id at index 0
+    */
+    public ColumnStore(ArrayList<Tuple> tuples) {
+        this(tuples, tuples.size(), tuples.get(0).values.length - 1);
+    }
+
+    /**
+     * Parse the first num_attributes attributes of the first num_tuples tuples
+     * @param tuples The tuples to be stored, with the id at index 0
+     * @param num_tuples Number of tuples to store
+     * @param num_attributes Number of ranking attributes to store
+    */
+    public ColumnStore(ArrayList<Tuple> tuples, int num_tuples, int num_attributes) {
+        this.num_tuples = num_tuples;
+        this.num_attributes = num_attributes;
+        ids = new String[num_tuples];
+        columns = new double[num_attributes][num_tuples];
+        for (int i = 0; i < num_tuples; i++) {
+            String[] values = tuples.get(i).values;
+            ids[i] = values[0];
+            for (int j = 0; j < num_attributes; j++) {
+                columns[j][i] = Double.parseDouble(values[j + 1]);
+                BigDecimal decimal = decimal(values[j + 1], columns[j][i]);
+                if (decimal != null) {
+                    if (decimals == null) {
+                        decimals = new BigDecimal[num_attributes][];
+                    }
+                    if (decimals[j] == null) {
+                        decimals[j] = new BigDecimal[num_tuples];
+                    }
+                    decimals[j][i] = decimal;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param value A value
+     * @return The decimal of Double.toString, or the decimal with at most 15 significant digits parsing to the value
+     *         when Double.toString gives more digits than that
+    */
+    public static BigDecimal decimal(double value) {
+        BigDecimal shortest = BigDecimal.valueOf(value);
+        if (shortest.precision() <= SHORT_DECIMAL.getPrecision()) return shortest;
+        // Double.toString does not always give the shortest decimal, e.g. 7.0000000000000004E22 for 7e22
+        BigDecimal rounded = new BigDecimal(value).round(SHORT_DECIMAL);
+        return (rounded.doubleValue() == value) ? rounded : shortest;
+    }
+
+    /**
+     * @param length The number of characters of a string
+     * @param value The value parsed from the string
+     * @return Whether decimal(value) surely gives the decimal of the string back, since the string has at most 15 digits
+    */
+    public static boolean is_short(int length, double value) {
+        return length <= SHORT_DECIMAL.getPrecision() && Math.abs(value) >= Double.MIN_NORMAL && !Double.isInfinite(value);
+    }
+
+    /**
+     * @param string A string
+     * @param value The value parsed from the string by Double.parseDouble
+     * @return The decimal of the string if decimal(value) does not give it back, null otherwise or if the string is not a decimal
+    */
+    public static BigDecimal decimal(String string, double value) {
+        if (is_short(string.length(), value)) return null;
+        BigDecimal exact;
+        try {
+            exact = new BigDecimal(string.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (!Double.isInfinite(value) && exact.compareTo(decimal(value)) == 0) return null;
+        return exact;
+    }
+
+    /**
+     * @param tuple The index of a tuple
+     * @param attribute The index of an attribute
+     * @return The value of the attribute of the tuple
+    */
+    public double get(int tuple, int attribute) {
+        return columns[attribute][offset + tuple];
+    }
+
+    /**
+     * The decimal is the one of the string the value was parsed from, kept or rebuilt from the double,
+     * so exact scores are the same as with the strings even when the doubles round them
+     * @param tuple The index of a tuple
+     * @param attribute The index of an attribute
+     * @return The exact decimal of the value of the attribute of the tuple
+    */
+    public BigDecimal get_decimal(int tuple, int attribute) {
+        BigDecimal kept = kept_decimal(tuple, attribute);
+        return (kept != null) ? kept : decimal(get(tuple, attribute));
+    }
+
+    /**
+     * @param tuple The index of a tuple
+     * @param attribute The index of an attribute
+     * @return The decimal of the value if it is kept because the double does not give it back, null otherwise
+    */
+    protected BigDecimal kept_decimal(int tuple, int attribute) {
+        if (decimals == null || decimals[attribute] == null) return null;
+        return decimals[attribute][offset + tuple];
+    }
+
+    /**
+     * @param order The index of the tuple to put at each position
+     * @return The kept decimals of the tuples in the order, null if none is kept
+    */
+    protected BigDecimal[][] kept_decimals(int[] order) {
+        BigDecimal[][] kept = null;
+        for (int j = 0; j < num_attributes; j++) {
+            for (int i = 0; i < order.length; i++) {
+                BigDecimal decimal = kept_decimal(order[i], j);
+                if (decimal == null) continue;
+                if (kept == null) {
+                    kept = new BigDecimal[num_attributes][];
+                }
+                if (kept[j] == null) {
+                    kept[j] = new BigDecimal[order.length];
+                }
+                kept[j][i] = decimal;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * CAUTION: The returned array is the storage of the column itself and no copy is made
+     * In a view, tuple i is at index get_offset() + i of the array, which may hold more values than the view
+     * @param attribute The index of an attribute
+     * @return All values of the attribute
+    */
+    public double[] getColumn(int attribute) {
+        return columns[attribute];
+    }
+
+    /**
+     * Copy the values of an attribute for a range of tuples
+     * @param attribute The index of an attribute
+     * @param from The first tuple
+     * @param to The tuple after the last one
+     * @param out The values, starting from index 0
+    */
+    public void read(int attribute, int from, int to, double[] out) {
+        System.arraycopy(columns[attribute], offset + from, out, 0, to - from);
+    }
+
+    /**
+     * @return The index in the arrays returned by getColumn of the first tuple
+    */
+    public int get_offset() {
+        return offset;
+    }
+
+    /**
+     * @param tuple The index of a tuple
+     * @return The id of the tuple
+    */
+    public String getId(int tuple) {
+        return ids[offset + tuple];
+    }
+
+    /**
+     * A view of a range of tuples and a list of attributes, backed by the storage of this store without copying any value
+     * @param from The first tuple of the view
+     * @param to The tuple after the last one of the view
+     * @param attributes The attributes of the view in their order in the view
+     * @return The view
+     * @throws IndexOutOfBoundsException If the range or an attribute is out of the store
+    */
+    public ColumnStore view(int from, int to, int[] attributes) {
+        check_view(from, to, attributes);
+        double[][] view_columns = new double[attributes.length][];
+        BigDecimal[][] view_decimals = (decimals == null) ? null : new BigDecimal[attributes.length][];
+        for (int j = 0; j < attributes.length; j++) {
+            view_columns[j] = getColumn(attributes[j]);
+            if (decimals != null) {
+                view_decimals[j] = decimals[attributes[j]];
+            }
+        }
+        return new ColumnStore(ids, view_columns, view_decimals, offset + from, to - from);
+    }
+
+    /**
+     * A view shares the storage of the whole store it was made from, so a range past its end would read the tuples after it
+     * @param from The first tuple of a view
+     * @param to The tuple after the last one of the view
+     * @param attributes The attributes of the view
+     * @throws IndexOutOfBoundsException If the range or an attribute is out of the store
+    */
+    protected void check_view(int from, int to, int[] attributes) {
+        if (from < 0 || to > num_tuples || from > to) {
+            throw new IndexOutOfBoundsException("Tuples " + from + " to " + to + " out of a store of " + num_tuples + " tuples");
+        }
+        for (int attribute : attributes) {
+            if (attribute < 0 || attribute >= num_attributes) {
+                throw new IndexOutOfBoundsException("Attribute " + attribute + " out of a store of " + num_attributes + " attributes");
+            }
+        }
+    }
+
+    /**
+     * @param num_tuples Number of tuples from the first one
+     * @param num_attributes Number of attributes from the first one
+     * @return A view of the first tuples and the first attributes
+    */
+    public ColumnStore view(int num_tuples, int num_attributes) {
+        int[] attributes = new int[num_attributes];
+        for (int j = 0; j < num_attributes; j++) {
+            attributes[j] = j;
+        }
+        return view(0, num_tuples, attributes);
+    }
+
+    /**
+     * Copy the tuples into a new store in the given order
+     * @param order The index of the tuple to put at each position
+     * @return The reordered store
+    */
+    public ColumnStore reorder(int[] order) {
+        String[] new_ids = new String[order.length];
+        double[][] new_columns = new double[num_attributes][order.length];
+        for (int i = 0; i < order.length; i++) {
+            new_ids[i] = getId(order[i]);
+        }
+        for (int j = 0; j < num_attributes; j++) {
+            for (int i = 0; i < order.length; i++) {
+                new_columns[j][i] = get(order[i], j);
+            }
+        }
+        return new ColumnStore(new_ids, new_columns, kept_decimals(order));
+    }
+
+    /**
+     * @param tuple The index of a tuple
+     * @param weights The weight of each attribute
+     * @return The score of the tuple as the weighted sum of its attributes
+    */
+    public double score(int tuple, double[] weights) {
+        double score = 0;
+        for (int j = 0; j < num_attributes; j++) {
+            score += weights[j] * get(tuple, j);
+        }
+        return score;
+    }
+
+    /**
+     * @param i The index of a tuple
+     * @param j The index of another tuple
+     * @return The attribute-wise difference between tuple i and tuple j
+    */
+    public double[] difference(int i, int j) {
+        double[] difference = new double[num_attributes];
+        for (int l = 0; l < num_attributes; l++) {
+            difference[l] = get(i, l) - get(j, l);
+        }
+        return difference;
+    }
+
+    /**
+     * A tuple is compared with another to get the relationship of the domination
+     * The semantics are the same as Tuple.isDominating
+     * @param i The index of a tuple
+     * @param j The index of the other tuple
+     * @param gap A gap for strict wins
+     * @return 1 if tuple i dominates tuple j, -1 if tuple i is dominated by tuple j, 0 otherwise
+     * @see entities.Tuple#isDominating
+    */
+    public int isDominating(int i, int j, double gap) {
+        int count = 0;
+        for (int l = 0; l < num_attributes; l++) {
+            double a = get(i, l), b = get(j, l);
+            if (a >= b - gap) {
+                count++;
+            } else if (a < b - gap) {
+                count--;
+            }
+        }
+        if (count == num_attributes) return 1;
+        else if (count == -num_attributes) return -1;
+        else return 0;
+    }
+
+    /**
+     * The groups are computed at the first call and kept, since the values of a store never change
+     * @return The groups of tuples with the same values on all attributes
+    */
+    public DuplicateGroups getGroups() {
+        if (groups == null) {
+            groups = new DuplicateGroups(this);
+        }
+        return groups;
+    }
+
+    /**
+     * @return The tuples, in a store whose values are all in memory so that they can be read in any order
+    */
+    public ColumnStore materialize() {
+        return this;
+    }
+
+    /**
+     * The groups of duplicates are computed before the threads share the store, since they are computed lazily
+     * @return The tuples, in a store which threads can read at the same time
+    */
+    public ColumnStore thread_safe() {
+        getGroups();
+        return this;
+    }
+
+    /**
+     * @return int The number of tuples in the store
+    */
+    public int get_size() {
+        return num_tuples;
+    }
+
+    /**
+     * @return int The number of ranking attributes in the store
+    */
+    public int get_num_attributes() {
+        return num_attributes;
+    }
+}
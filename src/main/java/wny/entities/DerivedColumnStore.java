@@ -0,0 +1,377 @@
+package wny.entities;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * A column store whose attributes are expressions over the attributes of a base store,
+ * e.g. the powers of the attributes for a polynomial ranking function
+ * The values of a derived attribute are computed lazily, one batch of tuples at a time, when the batch is first accessed
+ * With caching, every computed batch is kept, so each value is computed only once and memory grows with the accessed tuples
+ * Without caching, only the last SLOTS computed batches of each attribute are kept, the least recently used one being replaced,
+ * so memory does not grow with the number of tuples and reads alternating between a few ranges of tuples do not recompute batches
+ * CAUTION: The store computes batches on access and is not thread-safe; use a copy per thread or reorder it into a heap store
+*/
+public class DerivedColumnStore extends ColumnStore {
+    public static final int BATCH_SIZE = 1024;
+    public static final int SLOTS = 8;
+
+    private ColumnStore base;
+    private Expression[] expressions;
+    private boolean cache;
+    // [attribute][batch][tuple in the batch] with caching, [attribute][slot][tuple in the batch] without caching
+    private double[][][] batches;
+    // [attribute][slot] The batch held by each slot without caching, and when it was last used
+    private int[][] held_batches;
+    private long[][] last_used;
+    private long clock;
+    // The buffer of the second input of a product
+    private double[] input;
+
+    /**
+     * An attribute defined as an expression over the attributes of the base store
+    */
+    public static abstract class Expression {
+        /**
+         * @param names The names of the attributes of the base store, the first one being the id
+         * @return The name of the derived attribute
+        */
+        public abstract String name(String[] names);
+
+        /**
+         * Compute the values of a range of tuples
+         * @param store The store computing the batch, which reads the base attributes
+         * @param from The first tuple of the batch
+         * @param to The tuple after the last one of the batch
+         * @param out The computed values, starting from index 0
+        */
+        abstract void evaluate(DerivedColumnStore store, int from, int to, double[] out);
+
+        /**
+         * @return The attribute of the base store if the expression is the attribute itself, -1 otherwise
+        */
+        int base_attribute() {
+            return -1;
+        }
+    }
+
+    /**
+     * @param attribute The index of an attribute of the base store
+     * @return The attribute itself
+    */
+    public static Expression attribute(int attribute) {
+        return new Expression() {
+            public String name(String[] names) {
+                return names[attribute + 1];
+            }
+
+            void evaluate(DerivedColumnStore store, int from, int to, double[] out) {
+                store.read_base(attribute, from, to, out);
+            }
+
+            int base_attribute() {
+                return attribute;
+            }
+        };
+    }
+
+    /**
+     * @param attribute The index of an attribute of the base store
+     * @param exponent The exponent
+     * @return attribute ^ exponent
+    */
+    public static Expression power(int attribute, int exponent) {
+        return new Expression() {
+            public String name(String[] names) {
+                return names[attribute + 1] + "^" + exponent;
+            }
+
+            void evaluate(DerivedColumnStore store, int from, int to, double[] out) {
+                store.read_base(attribute, from, to, out);
+                for (int i = 0; i < to - from; i++) {
+                    out[i] = Math.pow(out[i], exponent);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param attribute1 The index of an attribute of the base store
+     * @param attribute2 The index of another attribute of the base store
+     * @return attribute1 * attribute2, the interaction of the two attributes
+    */
+    public static Expression product(int attribute1, int attribute2) {
+        return new Expression() {
+            public String name(String[] names) {
+                return names[attribute1 + 1] + "*" + names[attribute2 + 1];
+            }
+
+            void evaluate(DerivedColumnStore store, int from, int to, double[] out) {
+                store.read_base(attribute1, from, to, out);
+                double[] other = store.input();
+                store.read_base(attribute2, from, to, other);
+                for (int i = 0; i < to - from; i++) {
+                    out[i] *= other[i];
+                }
+            }
+        };
+    }
+
+    /**
+     * @param attribute The index of an attribute of the base store
+     * @return The natural logarithm of the attribute
+    */
+    public static Expression log(int attribute) {
+        return new Expression() {
+            public String name(String[] names) {
+                return "log(" + names[attribute + 1] + ")";
+            }
+
+            void evaluate(DerivedColumnStore store, int from, int to, double[] out) {
+                store.read_base(attribute, from, to, out);
+                for (int i = 0; i < to - from; i++) {
+                    out[i] = Math.log(out[i]);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param base The store of the base attributes
+     * @param expressions The expression of each attribute of the store
+     * @param cache Whether the computed values are kept
+    */
+    public DerivedColumnStore(ColumnStore base, Expression[] expressions, boolean cache) {
+        super(base.get_size(), expressions.length);
+        this.base = base;
+        this.expressions = expressions;
+        this.cache = cache;
+        int num_batches = (num_tuples + BATCH_SIZE - 1) / BATCH_SIZE;
+        batches = new double[num_attributes][cache ? num_batches : SLOTS][];
+        held_batches = new int[num_attributes][SLOTS];
+        last_used = new long[num_attributes][SLOTS];
+        for (int j = 0; j < num_attributes; j++) {
+            Arrays.fill(held_batches[j], -1);
+        }
+    }
+
+    /**
+     * @param base The store of the base attributes
+     * @param exponent The highest exponent
+     * @return The base attributes followed by their powers from 2 to the exponent, attribute by attribute
+    */
+    public static Expression[] powers(ColumnStore base, int exponent) {
+        int m = base.get_num_attributes();
+        Expression[] expressions = new Expression[m * exponent];
+        int count = 0;
+        for (int j = 0; j < m; j++) {
+            expressions[count++] = attribute(j);
+        }
+        for (int j = 0; j < m; j++) {
+            for (int e = 2; e <= exponent; e++) {
+                expressions[count++] = power(j, e);
+            }
+        }
+        return expressions;
+    }
+
+    @Override
+    public double get(int tuple, int attribute) {
+        int base_attribute = expressions[attribute].base_attribute();
+        if (base_attribute >= 0) {
+            return base.get(tuple, base_attribute);
+        }
+        return batch(attribute, tuple / BATCH_SIZE)[tuple % BATCH_SIZE];
+    }
+
+    /**
+     * The decimals kept by the base store are those of the base attributes, and the derived values are only known as doubles
+    */
+    @Override
+    protected BigDecimal kept_decimal(int tuple, int attribute) {
+        int base_attribute = expressions[attribute].base_attribute();
+        return (base_attribute >= 0) ? base.kept_decimal(tuple, base_attribute) : null;
+    }
+
+    /**
+     * CAUTION: The whole column is computed, and kept with caching
+     * @param attribute The index of an attribute
+     * @return All values of the attribute
+    */
+    @Override
+    public double[] getColumn(int attribute) {
+        if (columns != null && columns[attribute] != null) {
+            return columns[attribute];
+        }
+        double[] column = new double[num_tuples];
+        for (int from = 0; from < num_tuples; from += BATCH_SIZE) {
+            int to = Math.min(from + BATCH_SIZE, num_tuples);
+            System.arraycopy(batch(attribute, from / BATCH_SIZE), 0, column, from, to - from);
+        }
+        if (cache) {
+            if (columns == null) {
+                columns = new double[num_attributes][];
+            }
+            columns[attribute] = column;
+        }
+        return column;
+    }
+
+    @Override
+    public void read(int attribute, int from, int to, double[] out) {
+        int base_attribute = expressions[attribute].base_attribute();
+        if (base_attribute >= 0) {
+            base.read(base_attribute, from, to, out);
+            return;
+        }
+        for (int start = from; start < to; ) {
+            int batch = start / BATCH_SIZE, end = Math.min((batch + 1) * BATCH_SIZE, to);
+            System.arraycopy(batch(attribute, batch), start - batch * BATCH_SIZE, out, start - from, end - start);
+            start = end;
+        }
+    }
+
+    @Override
+    public int get_offset() {
+        return 0;
+    }
+
+    @Override
+    public String getId(int tuple) {
+        return base.getId(tuple);
+    }
+
+    /**
+     * The view is a derived store over a view of the base store, so no value is computed or copied
+    */
+    @Override
+    public ColumnStore view(int from, int to, int[] attributes) {
+        check_view(from, to, attributes);
+        Expression[] view_expressions = new Expression[attributes.length];
+        for (int j = 0; j < attributes.length; j++) {
+            view_expressions[j] = expressions[attributes[j]];
+        }
+        return new DerivedColumnStore(base.view(from, to, all_attributes(base)), view_expressions, cache);
+    }
+
+    /**
+     * Only the base attributes are reordered and the derived ones are still computed on access
+    */
+    @Override
+    public ColumnStore reorder(int[] order) {
+        return new DerivedColumnStore(base.reorder(order), expressions, cache);
+    }
+
+    /**
+     * The values are computed once and copied into a heap store, which the solvers read in any order
+    */
+    @Override
+    public ColumnStore materialize() {
+        String[] ids = new String[num_tuples];
+        double[][] columns = new double[num_attributes][];
+        int[] order = new int[num_tuples];
+        for (int i = 0; i < num_tuples; i++) {
+            ids[i] = getId(i);
+            order[i] = i;
+        }
+        for (int j = 0; j < num_attributes; j++) {
+            columns[j] = getColumn(j);
+        }
+        return new ColumnStore(ids, columns, kept_decimals(order));
+    }
+
+    /**
+     * The store computes its values on access and is not thread-safe, so its values are copied into a heap store
+    */
+    @Override
+    public ColumnStore thread_safe() {
+        return materialize().thread_safe();
+    }
+
+    /**
+     * @param attribute The index of an attribute
+     * @param names The names of the attributes of the base store, the first one being the id
+     * @return The name of the attribute
+    */
+    public String name(int attribute, String[] names) {
+        return expressions[attribute].name(names);
+    }
+
+    /**
+     * @param attribute The index of a derived attribute
+     * @param batch The index of a batch of tuples
+     * @return The values of the batch, starting from index 0
+    */
+    private double[] batch(int attribute, int batch) {
+        if (cache) {
+            double[] values = batches[attribute][batch];
+            if (values == null) {
+                values = new double[BATCH_SIZE];
+                evaluate(attribute, batch, values);
+                batches[attribute][batch] = values;
+            }
+            return values;
+        }
+        int[] held = held_batches[attribute];
+        long[] used = last_used[attribute];
+        int victim = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (held[slot] == batch) {
+                used[slot] = ++clock;
+                return batches[attribute][slot];
+            }
+            if (used[slot] < used[victim]) victim = slot;
+        }
+        double[] values = batches[attribute][victim];
+        if (values == null) {
+            values = new double[BATCH_SIZE];
+            batches[attribute][victim] = values;
+        }
+        evaluate(attribute, batch, values);
+        held[victim] = batch;
+        used[victim] = ++clock;
+        return values;
+    }
+
+    /**
+     * @param attribute The index of a derived attribute
+     * @param batch The index of a batch of tuples
+     * @param values The values of the batch, starting from index 0
+    */
+    private void evaluate(int attribute, int batch, double[] values) {
+        int from = batch * BATCH_SIZE, to = Math.min(from + BATCH_SIZE, num_tuples);
+        expressions[attribute].evaluate(this, from, to, values);
+    }
+
+    /**
+     * @param attribute The index of an attribute of the base store
+     * @param from The first tuple
+     * @param to The tuple after the last one
+     * @param out The values, starting from index 0
+    */
+    private void read_base(int attribute, int from, int to, double[] out) {
+        base.read(attribute, from, to, out);
+    }
+
+    /**
+     * @return A buffer for the second input of an expression
+    */
+    private double[] input() {
+        if (input == null) {
+            input = new double[BATCH_SIZE];
+        }
+        return input;
+    }
+
+    /**
+     * @param store A store
+     * @return The indices of all attributes of the store
+    */
+    private static int[] all_attributes(ColumnStore store) {
+        int[] attributes = new int[store.get_num_attributes()];
+        for (int j = 0; j < attributes.length; j++) {
+            attributes[j] = j;
+        }
+        return attributes;
+    }
+}
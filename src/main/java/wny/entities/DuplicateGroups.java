@@ -0,0 +1,114 @@
+package wny.entities;
+
+import java.util.HashMap;
+
+/**
+ * The groups of tuples with the same values on all attributes of a column store
+ * Tuples in the same group produce the same hyperplane against any other tuple,
+ * so the solvers handle each group once and count it as many times as it has tuples
+ * The groups are in the order of their first tuples, which represent them
+*/
+public class DuplicateGroups {
+    private final int[] representatives;
+    private final int[] multiplicities;
+    private final int[] group_of;
+
+    /**
+     * The values of a tuple, compared with == so that 0.0 and -0.0 are the same value
+    */
+    private static class Row {
+        private final ColumnStore data;
+        private final int tuple;
+        private final int hash;
+
+        Row(ColumnStore data, int tuple) {
+            this.data = data;
+            this.tuple = tuple;
+            int h = 1;
+            for (int j = 0; j < data.get_num_attributes(); j++) {
+                h = 31 * h + Double.hashCode(data.get(tuple, j) + 0.0);
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            Row other = (Row) o;
+            for (int j = 0; j < data.get_num_attributes(); j++) {
+                if (data.get(tuple, j) != data.get(other.tuple, j)) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param data All tuples of a relation in column-major order
+    */
+    public DuplicateGroups(ColumnStore data) {
+        int num_tuples = data.get_size();
+        HashMap<Row, Integer> groups = new HashMap<Row, Integer>();
+        int[] first = new int[num_tuples], count = new int[num_tuples];
+        group_of = new int[num_tuples];
+        for (int i = 0; i < num_tuples; i++) {
+            Row row = new Row(data, i);
+            Integer group = groups.get(row);
+            if (group == null) {
+                group = groups.size();
+                groups.put(row, group);
+                first[group] = i;
+            }
+            count[group]++;
+            group_of[i] = group;
+        }
+        int num_groups = groups.size();
+        representatives = new int[num_groups];
+        multiplicities = new int[num_groups];
+        System.arraycopy(first, 0, representatives, 0, num_groups);
+        System.arraycopy(count, 0, multiplicities, 0, num_groups);
+    }
+
+    /**
+     * @return int The number of distinct tuples
+    */
+    public int get_size() {
+        return representatives.length;
+    }
+
+    /**
+     * @param group The index of a group
+     * @return The index of the first tuple of the group
+    */
+    public int getRepresentative(int group) {
+        return representatives[group];
+    }
+
+    /**
+     * @param group The index of a group
+     * @return The number of tuples in the group
+    */
+    public int getMultiplicity(int group) {
+        return multiplicities[group];
+    }
+
+    /**
+     * @param group The index of a group
+     * @param tuple The index of a tuple
+     * @return The number of tuples in the group other than the given tuple
+    */
+    public int getMultiplicity(int group, int tuple) {
+        return group_of[tuple] == group ? multiplicities[group] - 1 : multiplicities[group];
+    }
+
+    /**
+     * @param tuple The index of a tuple
+     * @return The index of the group of the tuple
+    */
+    public int getGroup(int tuple) {
+        return group_of[tuple];
+    }
+}
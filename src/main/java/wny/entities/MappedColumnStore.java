@@ -0,0 +1,100 @@
+package wny.entities;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * A column store whose values stay in a memory-mapped binary relation file
+ * Each column is a view of the mapped file, so loading does not copy any value
+ * and repeated runs on the same file share the page cache of the operating system
+ * @see wny.util.BinaryParser
+*/
+public class MappedColumnStore extends ColumnStore {
+    private DoubleBuffer[] buffers;
+    private IdReader id_reader;
+
+    /**
+     * Decodes the ids of the tuples on demand
+     * The ids are not needed by the solvers, so they are only read when asked for
+    */
+    public interface IdReader {
+        String[] read();
+    }
+
+    /**
+     * @param buffers One mapped buffer per attribute, each holding num_tuples values
+     * @param id_reader Reads the ids of all tuples when they are first needed
+    */
+    public MappedColumnStore(DoubleBuffer[] buffers, IdReader id_reader) {
+        super(buffers.length == 0 ? 0 : buffers[0].limit(), buffers.length);
+        this.buffers = buffers;
+        this.id_reader = id_reader;
+        columns = new double[num_attributes][];
+    }
+
+    @Override
+    public double get(int tuple, int attribute) {
+        return buffers[attribute].get(tuple);
+    }
+
+    /**
+     * CAUTION: Unlike the heap store, the column is copied out of the mapped file at the first call
+     * Use getBuffer to read the column without copying
+     * @param attribute The index of an attribute
+     * @return All values of the attribute
+    */
+    @Override
+    public double[] getColumn(int attribute) {
+        if (columns[attribute] == null) {
+            double[] column = new double[num_tuples];
+            buffers[attribute].duplicate().get(column);
+            columns[attribute] = column;
+        }
+        return columns[attribute];
+    }
+
+    @Override
+    public void read(int attribute, int from, int to, double[] out) {
+        DoubleBuffer buffer = buffers[attribute].duplicate();
+        buffer.position(from);
+        buffer.get(out, 0, to - from);
+    }
+
+    /**
+     * @param attribute The index of an attribute
+     * @return A read-only view of the column in the mapped file
+    */
+    public DoubleBuffer getBuffer(int attribute) {
+        return buffers[attribute].duplicate();
+    }
+
+    /**
+     * The view slices the mapped buffers, so it does not copy any value either
+    */
+    @Override
+    public ColumnStore view(int from, int to, int[] attributes) {
+        check_view(from, to, attributes);
+        DoubleBuffer[] view_buffers = new DoubleBuffer[attributes.length];
+        for (int j = 0; j < attributes.length; j++) {
+            DoubleBuffer buffer = buffers[attributes[j]].duplicate();
+            buffer.position(from);
+            buffer.limit(to);
+            view_buffers[j] = buffer.slice();
+        }
+        MappedColumnStore base = this;
+        return new MappedColumnStore(view_buffers, () -> {
+            String[] view_ids = new String[to - from];
+            for (int i = from; i < to; i++) {
+                view_ids[i - from] = base.getId(i);
+            }
+            return view_ids;
+        });
+    }
+
+    @Override
+    public String getId(int tuple) {
+        if (ids == null) {
+            ids = id_reader.read();
+        }
+        return ids[tuple];
+    }
+}
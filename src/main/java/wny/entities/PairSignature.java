@@ -0,0 +1,52 @@
+package wny.entities;
+
+/**
+ * The relationship of a cell with the hyperplane of every pair which domination does not decide, in 2 bits per pair:
+ * one bit set when the cell always wins the pair, one when it always loses it, and none when the pair is undetermined in the cell
+ * The pairs are numbered by a CellBounds, so a signature is only meaningful to the CellBounds which made it
+ * @see CellBounds
+*/
+public class PairSignature {
+    // The CellBounds which numbers the pairs
+    final CellBounds owner;
+    // Bit p of the words is set when the hyperplane of pair p is on the winning side of the cell, or on the losing side
+    final long[] wins;
+    final long[] losses;
+
+    /**
+     * @param owner The CellBounds which numbers the pairs
+     * @param num_pairs The number of pairs
+    */
+    PairSignature(CellBounds owner, int num_pairs) {
+        this.owner = owner;
+        wins = new long[(num_pairs + 63) >>> 6];
+        losses = new long[(num_pairs + 63) >>> 6];
+    }
+
+    /**
+     * @param pair The number of a pair, whose status is not set yet
+     * @param status 1 for a pair always won in the cell, -1 for a pair always lost, 0 for an undetermined pair
+    */
+    void set(int pair, int status) {
+        if (status == 1) wins[pair >>> 6] |= 1L << pair;
+        else if (status == -1) losses[pair >>> 6] |= 1L << pair;
+    }
+
+    /**
+     * @param words The words of a bitset
+     * @param from The first bit
+     * @param to The bit after the last one
+     * @return The number of bits set from the first bit to the last one
+    */
+    static int count(long[] words, int from, int to) {
+        if (from >= to) return 0;
+        int first = from >>> 6, last = (to - 1) >>> 6;
+        long head = -1L << from, tail = -1L >>> (63 - ((to - 1) & 63));
+        if (first == last) return Long.bitCount(words[first] & head & tail);
+        int count = Long.bitCount(words[first] & head) + Long.bitCount(words[last] & tail);
+        for (int w = first + 1; w < last; w++) {
+            count += Long.bitCount(words[w]);
+        }
+        return count;
+    }
+}
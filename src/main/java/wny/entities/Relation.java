@@ -1,8 +1,9 @@
 package wny.entities;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 
 /** 
  * A relation is an arraylist of tuples with a common list of attributes
@@ -16,6 +17,7 @@ public class Relation
     private String relation_name;
     private String[] schema;
     private ArrayList<Tuple> tuples;
+    private ColumnStore columns;
 
 	/** 
      * @param relation_name A string identifier for the relation
@@ -28,12 +30,27 @@ public class Relation
         this.tuples = new ArrayList<Tuple>();
     }
 
+	/** 
+     * Construct a relation backed by a column store, e.g. one loaded from a binary relation file
+     * The tuples are only materialized as strings when they are asked for
+     * @param relation_name A string identifier for the relation
+     * @param relation_schema An array of attribute names, the first one being the id
+     * @param columns The values of all attributes except the id
+    */
+    public Relation(String relation_name, String[] relation_schema, ColumnStore columns)
+    {
+        this.relation_name = relation_name;
+        this.schema = relation_schema;
+        this.columns = columns;
+    }
+
     /** 
      * @param t The tuple to be inserted at the end of the relation
      */
     public void insert(Tuple t)
     {
-        this.tuples.add(t);
+        getAll().add(t);
+        columns = null;
     }
 
     /** 
@@ -42,7 +59,8 @@ public class Relation
     // Inserts a collection of tuple in the relation
     public void insertAll(Collection<Tuple> ts)
     {
-        this.tuples.addAll(ts);
+        getAll().addAll(ts);
+        columns = null;
     }
 
     /** 
@@ -51,7 +69,7 @@ public class Relation
      */
     public Tuple get(int index)
     {
-        return this.tuples.get(index);
+        return getAll().get(index);
     }
 
     /** 
@@ -59,33 +77,89 @@ public class Relation
      */
     public ArrayList<Tuple> getAll()
     {
+        if (tuples == null) {
+            int size = columns.get_size(), num_attributes = columns.get_num_attributes();
+            tuples = new ArrayList<Tuple>(size);
+            for (int i = 0; i < size; i++) {
+                String[] values = new String[num_attributes + 1];
+                values[0] = columns.getId(i);
+                for (int j = 0; j < num_attributes; j++) {
+                    double value = columns.get(i, j);
+                    BigDecimal decimal = columns.kept_decimal(i, j);
+                    // Integral values are written without a fraction, as they would appear in the csv file,
+                    // and other values as the decimals they were parsed from, which Double.toString does not always give back
+                    if (decimal != null) {
+                        values[j + 1] = decimal.toString();
+                    } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                        values[j + 1] = Long.toString((long) value);
+                    } else if (Double.isNaN(value) || Double.isInfinite(value)) {
+                        values[j + 1] = Double.toString(value);
+                    } else {
+                        values[j + 1] = ColumnStore.decimal(value).stripTrailingZeros().toString();
+                    }
+                }
+                tuples.add(new Tuple(values));
+            }
+        }
         return this.tuples;
     }
 
     /** 
+     * The values are parsed at the first call and kept until the relation is modified
+     * CAUTION: Tuples modified through getAll() are not reflected in a store that has already been built
+     * @return ColumnStore All attributes except the id in column-major order
+     */
+    public ColumnStore getColumns()
+    {
+        if (columns == null) {
+            columns = new ColumnStore(tuples);
+        }
+        return columns;
+    }
+
+    /** 
+     * The relation becomes a view of its column store, so no value is copied
      * @param num The number of tuples to keep
      */
     // Only keep the top-num tuples in the relation
     public void top(int num) {
-        int num_attributes = get_num_attributes();
-        ArrayList<Tuple> new_tuples = new ArrayList<Tuple>();
-
-        for (int i = 0; i < num; i++) {
-            Tuple tuple = new Tuple(new String[num_attributes]);
-            for (int j = 0; j < num_attributes; j++) {
-                tuple.values[j] = tuples.get(i).values[j];
-            }
-            new_tuples.add(tuple);
+        ColumnStore store = getColumns();
+        int[] attributes = new int[store.get_num_attributes()];
+        for (int j = 0; j < attributes.length; j++) {
+            attributes[j] = j;
         }
-        tuples = new_tuples;
+        columns = store.view(0, num, attributes);
+        this.tuples = null;
     }
 
     /** 
+     * When the id stays the first attribute, the relation becomes a view of its column store and no value is copied
      * @param indices the indices of attributes to keep
      */
     // Only keep the columns at the input indices
     public void project(int indices[]) {
         int num_attributes = indices.length;
+        boolean keeps_id = indices[0] == 0;
+        for (int j = 1; j < num_attributes; j++) {
+            if (indices[j] == 0) keeps_id = false;
+        }
+        if (keeps_id) {
+            int[] attributes = new int[num_attributes - 1];
+            for (int j = 1; j < num_attributes; j++) {
+                attributes[j - 1] = indices[j] - 1;
+            }
+            columns = getColumns().view(0, get_size(), attributes);
+            this.tuples = null;
+
+            String[] new_schema = new String[num_attributes];
+            for (int i = 0; i < num_attributes; i++) {
+                new_schema[i] = schema[indices[i]];
+            }
+            schema = new_schema;
+            return;
+        }
+
+        ArrayList<Tuple> tuples = getAll();
         ArrayList<Tuple> new_tuples = new ArrayList<Tuple>();
 
         for (int i = 0; i < tuples.size(); i++) {
@@ -95,7 +169,8 @@ public class Relation
             }
             new_tuples.add(tuple);
         }
-        tuples = new_tuples;
+        this.tuples = new_tuples;
+        columns = null;
 
         String[] new_schema = new String[num_attributes];
         for (int i = 0; i < num_attributes; i++) {
@@ -104,40 +179,31 @@ public class Relation
         schema = new_schema;
     }
 
+    /** 
+     * The values of the powers are computed lazily from the column store and are not kept
+     * @param exponent The highest exponent of the powers of each attribute
+     * @see DerivedColumnStore#powers
+     */
     // Derive new attributes
     public void derive(int exponent) {
-        int num_tuples = tuples.size();
-
-        int num_attributes = (schema.length - 1) * exponent;
-        String[] new_schema = new String[1 + num_attributes];
-        ArrayList<Tuple> new_tuples = new ArrayList<Tuple>();
-
-        for (int i = 0; i < schema.length; i++) {
-            new_schema[i] = schema[i];
-        }
-        int count = schema.length;
-        for (int i = 1; i <= schema.length - 1; i++) {
-            for (int j = 2; j <= exponent; j++) {
-                new_schema[count++] = schema[i] + "^" + j;
-            }
-        }
+        derive(DerivedColumnStore.powers(getColumns(), exponent), false);
+    }
 
-        for (int l = 0; l < num_tuples; l++) {
-            Tuple tuple = new Tuple(new String[1 + num_attributes]);
-            for (int i = 0; i < schema.length; i++) {
-                tuple.values[i] = tuples.get(l).values[i];
-            }
-            count = schema.length;
-            for (int i = 1; i <= schema.length - 1; i++) {
-                for (int j = 2; j <= exponent; j++) {
-                    tuple.values[count++] = "" + Math.pow(Double.valueOf(tuples.get(l).values[i]), j);
-                }
-            }
-            new_tuples.add(tuple);
+    /** 
+     * The relation becomes backed by a derived column store, so no value is computed until it is accessed
+     * @param expressions The expression of each attribute after the derivation over the current attributes
+     * @param cache Whether the computed values are kept
+     */
+    public void derive(DerivedColumnStore.Expression[] expressions, boolean cache) {
+        String[] new_schema = new String[1 + expressions.length];
+        new_schema[0] = schema[0];
+        for (int j = 0; j < expressions.length; j++) {
+            new_schema[j + 1] = expressions[j].name(schema);
         }
 
+        columns = new DerivedColumnStore(getColumns(), expressions, cache);
+        this.tuples = null;
         schema = new_schema;
-        tuples = new_tuples;
     }
 
     /** 
@@ -145,11 +211,12 @@ public class Relation
      * @return int[] the ranking of tuples
      */
     public int[] getRanking() {
-        int size = tuples.size();
-        int rank_index = tuples.get(0).values.length - 1;
+        int size = get_size();
+        ColumnStore store = getColumns();
+        int rank_index = get_num_attributes() - 2;
         int[] ranking = new int[size];
         for (int i = 0; i < size; i++) {
-            ranking[i] = Integer.parseInt(tuples.get(i).values[rank_index]);
+            ranking[i] = (int) store.get(i, rank_index);
         }
         return ranking;
     }
@@ -161,15 +228,16 @@ public class Relation
     public int[] getRankingfromScore() {
         double precision = 1e-10;
 
-        int size = tuples.size();
-        int rank_index = tuples.get(0).values.length - 1;
+        int size = get_size();
+        ColumnStore store = getColumns();
+        int rank_index = get_num_attributes() - 2;
         int[] ranking = new int[size];
 
         for (int i = 0; i < size; i++) {
             ranking[i] = i + 1;
-            double score = Double.parseDouble(tuples.get(i).values[rank_index]);
+            double score = store.get(i, rank_index);
             for (int j = i - 1; j >= 0; j--) {
-                if (Double.parseDouble(tuples.get(j).values[rank_index]) - score <= precision) {
+                if (store.get(j, rank_index) - score <= precision) {
                     ranking[i]--;
                 } else {
                     break;
@@ -181,11 +249,33 @@ public class Relation
 
 	/** 
 	 * Sorts the tuples in the relation according to their compareTo() method
+	 * The sum of each tuple is computed once from the column store instead of parsing the strings in every comparison
 	 * @see entities.Tuple#compareTo
      */
     public void sort()
     {
-        Collections.sort(this.tuples);
+        ColumnStore store = getColumns();
+        ArrayList<Tuple> tuples = getAll();
+        int size = tuples.size();
+        double[] sums = new double[size];
+        for (int j = 0; j < store.get_num_attributes(); j++) {
+            for (int i = 0; i < size; i++) {
+                sums[i] += store.get(i, j);
+            }
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // The sort of objects is stable, which keeps the same order as sorting the tuples themselves
+        Arrays.sort(order, (a, b) -> (sums[a] < sums[b]) ? -1 : ((sums[a] > sums[b]) ? 1 : 0));
+
+        ArrayList<Tuple> new_tuples = new ArrayList<Tuple>(size);
+        for (int i = 0; i < size; i++) {
+            new_tuples.add(tuples.get(order[i]));
+        }
+        this.tuples = new_tuples;
+        columns = null;
     }
     
     /** 
@@ -193,6 +283,7 @@ public class Relation
      */
     public int get_size()
     {
+        if (tuples == null) return columns.get_size();
         return tuples.size();
     }
 
@@ -201,9 +292,18 @@ public class Relation
      */
     public int get_num_attributes()
     {
+        if (tuples == null) return columns.get_num_attributes() + 1;
         return tuples.get(0).values.length;
     }
 
+    /** 
+     * @return String[] The names of all attributes, the first one being the id
+     */
+    public String[] get_schema()
+    {
+        return schema;
+    }
+
     /** 
      * @return String The ID of the relation
      */
@@ -223,7 +323,7 @@ public class Relation
         for (String attribute : this.schema)
             str.append(attribute + " ");
         str.append("\n");
-        for (Tuple t : this.tuples)
+        for (Tuple t : getAll())
             str.append(t.flat_format() + "\n");
         str.append("End of " + this.relation_name + "\n");
         return str.toString();
@@ -0,0 +1,250 @@
+package wny.entities;
+
+import java.util.ArrayList;
+
+/**
+ * A cell which is a simplex inside the hyperplane where the weights sum to 1, given by its num_attributes vertices
+ * A hyperplane is on one side of the cell exactly when all vertices are on that side, so its bounds check
+ * num_attributes points instead of the 2 ^ num_attributes corners of a hyper-rectangle,
+ * and a cell never covers weights outside the simplex of weights unless it is built around a point near its boundary
+ * The size of a cell is the ratio of its edges to those of the simplex of weights
+ * @see Cell
+*/
+public class SimplexCell extends Cell {
+    // The rounding error of the barycentric coordinates of a point on the boundary
+    private static final double TOLERANCE = 1e-12;
+
+    // [vertex][attribute]
+    private double[][] vertices;
+    private int num_attributes;
+
+    /**
+     * @param vertices The vertices of the cell, each summing to 1
+     * @param size The size of the cell
+    */
+    public SimplexCell(double[][] vertices, double size) {
+        super(barycenter(vertices), size);
+        this.vertices = vertices;
+        num_attributes = vertices.length;
+    }
+
+    /**
+     * @param num_attributes The number of attributes
+     * @return The simplex of all weights, whose vertices are the unit vectors
+    */
+    public static SimplexCell root(int num_attributes) {
+        double[][] vertices = new double[num_attributes][num_attributes];
+        for (int v = 0; v < num_attributes; v++) {
+            vertices[v][v] = 1;
+        }
+        return new SimplexCell(vertices, 1.0);
+    }
+
+    /**
+     * @param point The barycenter of the cell, summing to 1
+     * @param size The size of the cell
+     * @return The simplex of weights shrunk by the size and moved to the point
+    */
+    public static SimplexCell around(double[] point, double size) {
+        int m = point.length;
+        double[][] vertices = new double[m][m];
+        for (int v = 0; v < m; v++) {
+            for (int i = 0; i < m; i++) {
+                vertices[v][i] = point[i] + size * (((v == i) ? 1 : 0) - 1.0 / m);
+            }
+        }
+        return new SimplexCell(vertices, size);
+    }
+
+    /**
+     * @param vertices The vertices of a simplex
+     * @return The average of the vertices
+    */
+    private static double[] barycenter(double[][] vertices) {
+        double[] center = new double[vertices.length];
+        for (double[] vertex : vertices) {
+            for (int i = 0; i < vertex.length; i++) {
+                center[i] += vertex[i] / vertices.length;
+            }
+        }
+        return center;
+    }
+
+    /**
+     * Return the relationship between one hyperplane (inequality with >= 0) and the cell
+     * @return 1 for the inequality is always true, -1 for the inequality is always false, 0 for two relationships both exist in the cell
+    */
+    @Override
+    protected int relationship_check(double[] inequality) {
+        boolean win = false, lost = false;
+
+        for (int v = 0; v < num_attributes; v++) {
+            double value = 0;
+            for (int j = 0; j < num_attributes; j++) {
+                value += inequality[j] * vertices[v][j];
+            }
+            if (value >= 0) win = true;
+            else lost = true;
+            if (win && lost) return 0;
+        }
+        if (win) return 1;
+        else return -1;
+    }
+
+    /**
+     * Divide the cell into divisor ^ (num_attributes - 1) smaller simplices of the same volume by the edgewise subdivision
+     * In the coordinates y_j = b_j + ... + b_(m-1) of the barycentric coordinates b, the cell is 1 >= y_1 >= ... >= y_(m-1) >= 0,
+     * which is one simplex of the Freudenthal triangulation of the unit cube
+     * The smaller simplices are those of the triangulation of the grid with divisor parts on each coordinate which lie in the cell:
+     * from a grid point a, the coordinates are increased one by one in an order which keeps y_j >= y_(j+1) whenever a_j = a_(j+1)
+     * @param divisor The number of parts of each edge
+     * @return The smaller cells
+    */
+    public SimplexCell[] subdivide(int divisor) {
+        ArrayList<SimplexCell> cells = new ArrayList<SimplexCell>();
+        subdivide(divisor, new int[num_attributes - 1], 0, cells);
+        return cells.toArray(new SimplexCell[cells.size()]);
+    }
+
+    /**
+     * Enumerate the grid points with divisor > a_1 >= ... >= a_(m-1) >= 0
+     * @param divisor The number of parts of each edge
+     * @param base The grid point, filled up to the coordinate
+     * @param coordinate The next coordinate of the grid point
+     * @param cells The smaller cells, filled in place
+    */
+    private void subdivide(int divisor, int[] base, int coordinate, ArrayList<SimplexCell> cells) {
+        if (coordinate == base.length) {
+            int[] point = base.clone();
+            int[][] path = new int[num_attributes][];
+            path[0] = point.clone();
+            orders(divisor, point, new boolean[base.length], base, path, 1, cells);
+            return;
+        }
+        int highest = (coordinate == 0) ? divisor - 1 : base[coordinate - 1];
+        for (int value = 0; value <= highest; value++) {
+            base[coordinate] = value;
+            subdivide(divisor, base, coordinate + 1, cells);
+        }
+    }
+
+    /**
+     * Enumerate the orders in which the coordinates of the grid point are increased, each giving one smaller cell
+     * @param divisor The number of parts of each edge
+     * @param point The grid point after the coordinates increased so far
+     * @param increased Whether each coordinate is increased
+     * @param base The grid point
+     * @param path The vertices of the smaller cell on the grid, filled up to the step
+     * @param step The number of the next vertex
+     * @param cells The smaller cells, filled in place
+    */
+    private void orders(int divisor, int[] point, boolean[] increased, int[] base, int[][] path, int step, ArrayList<SimplexCell> cells) {
+        if (step == num_attributes) {
+            double[][] cell_vertices = new double[num_attributes][];
+            for (int v = 0; v < num_attributes; v++) {
+                cell_vertices[v] = vertex(path[v], divisor);
+            }
+            cells.add(new SimplexCell(cell_vertices, size() / divisor));
+            return;
+        }
+        for (int j = 0; j < base.length; j++) {
+            if (increased[j] || (j > 0 && base[j - 1] == base[j] && !increased[j - 1])) continue;
+            increased[j] = true;
+            point[j]++;
+            path[step] = point.clone();
+            orders(divisor, point, increased, base, path, step + 1, cells);
+            point[j]--;
+            increased[j] = false;
+        }
+    }
+
+    /**
+     * @param y A grid point in the coordinates y_j = b_j + ... + b_(m-1)
+     * @param divisor The number of parts of each edge
+     * @return The weights at the grid point
+    */
+    private double[] vertex(int[] y, int divisor) {
+        double[] weights = new double[num_attributes];
+        for (int v = 0; v < num_attributes; v++) {
+            int higher = (v == 0) ? divisor : y[v - 1];
+            int lower = (v == num_attributes - 1) ? 0 : y[v];
+            double b = (higher - lower) / (double) divisor;
+            if (b == 0) continue;
+            for (int i = 0; i < num_attributes; i++) {
+                weights[i] += b * vertices[v][i];
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * The cell as linear constraints on the weights: each barycentric coordinate is a linear function of the weights
+     * since they sum to 1, given by a row of the inverse of the matrix whose columns are the vertices, and is at least 0
+     * @return The constraints of type multiple, -row * W <= 0 for each row of the inverse
+    */
+    public ArrayList<Constraint> getConstraints() {
+        int m = num_attributes;
+        // Gauss-Jordan elimination with partial pivoting on [V | I]
+        double[][] a = new double[m][2 * m];
+        for (int i = 0; i < m; i++) {
+            for (int v = 0; v < m; v++) {
+                a[i][v] = vertices[v][i];
+            }
+            a[i][m + i] = 1;
+        }
+        for (int c = 0; c < m; c++) {
+            int pivot = c;
+            for (int r = c + 1; r < m; r++) {
+                if (Math.abs(a[r][c]) > Math.abs(a[pivot][c])) pivot = r;
+            }
+            double[] swap = a[c];
+            a[c] = a[pivot];
+            a[pivot] = swap;
+            double p = a[c][c];
+            for (int j = 0; j < 2 * m; j++) {
+                a[c][j] /= p;
+            }
+            for (int r = 0; r < m; r++) {
+                if (r == c || a[r][c] == 0) continue;
+                double factor = a[r][c];
+                for (int j = 0; j < 2 * m; j++) {
+                    a[r][j] -= factor * a[c][j];
+                }
+            }
+        }
+
+        ArrayList<Constraint> constraints = new ArrayList<Constraint>();
+        for (int v = 0; v < m; v++) {
+            Double[] row = new Double[m];
+            for (int i = 0; i < m; i++) {
+                row[i] = -a[v][m + i];
+            }
+            constraints.add(new Constraint(row, 0.0));
+        }
+        return constraints;
+    }
+
+    /**
+     * @param other Another cell
+     * @return Whether every vertex of the other cell is in this cell, up to rounding
+    */
+    public boolean contains(SimplexCell other) {
+        for (Constraint c : getConstraints()) {
+            for (double[] vertex : other.vertices) {
+                double value = 0;
+                for (int i = 0; i < num_attributes; i++) {
+                    value += c.weightsweights[i] * vertex[i];
+                }
+                if (value > TOLERANCE) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the vertices of the cell
+     */
+    public double[][] getVertices() {
+        return vertices;
+    }
+}
@@ -0,0 +1,212 @@
+package wny.entities;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * The cells of a grid which intersect the simplex of weights, i.e. whose lowest corner sums to at most 1 and highest corner to at least 1
+ * The grid divides a cell into divisor parts on each attribute, in the order of Cell.divide where the first attribute varies fastest
+ * The grid indices are enumerated directly under the bounds of their sum, so only the cells around the hyperplane are visited
+ * and the grid itself is never allocated
+ * The cells can be split on the last attribute which has several indices, for parallel streams
+ * @see Cell#divide
+ * @see Cell#simplex_cells
+*/
+public class SimplexCells implements Spliterator<Cell> {
+    private double[] center;
+    private double size;
+    private int divisor;
+    private double cell_size;
+    private int num_attributes;
+    // The range of the grid indices of each attribute, from included and to excluded
+    private int[] from;
+    private int[] to;
+    // The range of the sum of the grid indices, slightly wider than the exact one which is checked on each cell
+    private long lowest_sum;
+    private long highest_sum;
+    // The grid indices of the next cell, null when no cell is left
+    private int[] next;
+    private boolean started;
+
+    /**
+     * @param parent The divided cell
+     * @param divisor The number of parts on each attribute
+     * @param cell_size The size of the cells of the grid
+    */
+    public SimplexCells(Cell parent, int divisor, double cell_size) {
+        this(parent.getCenter(), parent.size(), divisor, cell_size, new int[parent.getCenter().length], filled(parent.getCenter().length, divisor));
+    }
+
+    /**
+     * @param center The center of the divided cell
+     * @param size The size of the divided cell
+     * @param divisor The number of parts on each attribute
+     * @param cell_size The size of the cells of the grid
+     * @param from The first grid index of each attribute
+     * @param to The grid index after the last one of each attribute
+    */
+    public SimplexCells(double[] center, double size, int divisor, double cell_size, int[] from, int[] to) {
+        this.center = center;
+        this.size = size;
+        this.divisor = divisor;
+        this.cell_size = cell_size;
+        this.from = from.clone();
+        this.to = to.clone();
+        num_attributes = center.length;
+        // sum of lowest corners = sum (center - size / 2) + (2 * sum + m) * size / divisor / 2 - m * cell_size / 2 <= 1, and the highest corners >= 1
+        double origin = 0;
+        for (int i = 0; i < num_attributes; i++) {
+            origin += center[i] - size / 2;
+        }
+        double step = size / divisor;
+        lowest_sum = (long) Math.floor(((1 - origin - num_attributes * cell_size / 2) / step - num_attributes / 2.0)) - 1;
+        highest_sum = (long) Math.ceil(((1 - origin + num_attributes * cell_size / 2) / step - num_attributes / 2.0)) + 1;
+        next = first();
+    }
+
+    /**
+     * @return The first grid indices in the ranges whose sum is in range, null if there are none
+    */
+    private int[] first() {
+        for (int i = 0; i < num_attributes; i++) {
+            if (from[i] >= to[i]) return null;
+        }
+        return valid_sum(from) ? from.clone() : advance(from);
+    }
+
+    /**
+     * @param length The length of the array
+     * @param value The value
+     * @return An array filled with the value
+    */
+    private static int[] filled(int length, int value) {
+        int[] array = new int[length];
+        Arrays.fill(array, value);
+        return array;
+    }
+
+    /**
+     * The same expression as Cell.divide
+     * @param attribute The index of an attribute
+     * @param index The grid index
+     * @return The center of the cells with the grid index on the attribute
+    */
+    private double center(int attribute, int index) {
+        return center[attribute] - size / 2 + (2 * index + 1) * size / divisor / 2;
+    }
+
+    /**
+     * @param index The grid indices of a cell
+     * @return Whether the sum of the indices is in the range of the cells which may intersect the simplex
+    */
+    private boolean valid_sum(int[] index) {
+        long sum = 0;
+        for (int i = 0; i < num_attributes; i++) {
+            sum += index[i];
+        }
+        return sum >= lowest_sum && sum <= highest_sum;
+    }
+
+    /**
+     * The next grid indices in the order of the grid whose sum is in range
+     * Changing the first attributes comes before changing a later one, so each attribute is tried in turn with the smallest value
+     * above the current one from which the sum can reach the range, and the attributes before it take the smallest values reaching the range
+     * @param index The grid indices of a cell
+     * @return The next grid indices, null if there are none
+    */
+    private int[] advance(int[] index) {
+        for (int a = 0; a < num_attributes; a++) {
+            long later = 0, low = 0, high = 0;
+            for (int i = a + 1; i < num_attributes; i++) {
+                later += index[i];
+            }
+            for (int i = 0; i < a; i++) {
+                low += from[i];
+                high += to[i] - 1;
+            }
+            long value = Math.max(index[a] + 1, lowest_sum - later - high);
+            if (value >= to[a] || later + value + low > highest_sum) continue;
+            int[] result = index.clone();
+            result[a] = (int) value;
+            long missing = lowest_sum - later - value - low;
+            for (int i = 0; i < a; i++) {
+                int raise = (int) Math.max(0, Math.min(missing, to[i] - 1 - from[i]));
+                result[i] = from[i] + raise;
+                missing -= raise;
+            }
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * @param index The grid indices of a cell
+     * @return The cell, null if it does not intersect the simplex
+    */
+    private Cell cell(int[] index) {
+        double[] cell_center = new double[num_attributes];
+        double sum_upper = 0, sum_lower = 0;
+        for (int i = 0; i < num_attributes; i++) {
+            cell_center[i] = center(i, index[i]);
+            sum_upper += cell_center[i] + cell_size / 2;
+            sum_lower += cell_center[i] - cell_size / 2;
+        }
+        if (sum_upper < 1 || sum_lower > 1) return null;
+        return new Cell(cell_center, cell_size);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Cell> action) {
+        started = true;
+        while (next != null) {
+            Cell cell = cell(next);
+            next = advance(next);
+            if (cell != null) {
+                action.accept(cell);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Split off the lower half of the indices of the last attribute which has several of them,
+     * so that the split part comes first in the order of the grid
+     * Only cells which have not been traversed yet are split
+    */
+    @Override
+    public Spliterator<Cell> trySplit() {
+        if (next == null || started) return null;
+        for (int a = num_attributes - 1; a >= 0; a--) {
+            if (to[a] - from[a] > 1) {
+                int middle = from[a] + (to[a] - from[a]) / 2;
+                int[] prefix_to = to.clone();
+                prefix_to[a] = middle;
+                SimplexCells prefix = new SimplexCells(center, size, divisor, cell_size, from, prefix_to);
+                from[a] = middle;
+                next = first();
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of grid cells left in the ranges, an upper bound of the cells intersecting the simplex
+    */
+    @Override
+    public long estimateSize() {
+        if (next == null) return 0;
+        double estimate = 1;
+        for (int i = 0; i < num_attributes; i++) {
+            estimate *= to[i] - from[i];
+        }
+        return (estimate >= Long.MAX_VALUE) ? Long.MAX_VALUE : (long) estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+    }
+}
@@ -0,0 +1,265 @@
+package wny.solver;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import wny.entities.ColumnStore;
+import wny.entities.Tuple;
+
+/**
+ * An anytime solver based on the cross-entropy method, which needs no LP solver
+ * Each round draws samples from a Dirichlet distribution over the simplex of weights, keeps the elite samples with the smallest errors
+ * and fits the distribution to them by the method of moments, so the samples concentrate on the promising region of the simplex
+ * The distribution starts uniform, and starts over from the uniform one once it has collapsed to a point while time remains
+ * With constraints, each sample is projected onto the polytope of the weights satisfying all constraints, so no sample is infeasible
+ * The rounds are drawn from one seeded SplittableRandom and their blocks are evaluated on parallelism threads,
+ * so the same seed gives the same rounds no matter how many threads are used
+ * @see Sampling
+*/
+public class CrossEntropy extends Solver {
+    // The number of samples of a round
+    private static final int ROUND_SIZE = 128;
+    // The number of samples evaluated at once, so that each batch of tuples is scored for all of them while it is in the cache
+    private static final int BLOCK_SIZE = 16;
+    // The fraction of the samples of a round which are elites
+    private static final double ELITE_RATIO = 0.1;
+    // The weight of the fit to the elites against the previous distribution
+    private static final double SMOOTHING = 0.7;
+    // The concentration of the Dirichlet distribution beyond which it has collapsed to a point
+    private static final double MAX_CONCENTRATION = 1e6;
+    // The smallest parameter of the Dirichlet distribution, so that the gamma variates do not underflow
+    private static final double MIN_ALPHA = 0.05;
+
+    public int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param tuples All tuples of a relation
+     * @param given_ranking The given ranking
+     * @param precision A threshold for ties
+    */
+    public CrossEntropy(ArrayList<Tuple> tuples, int[] given_ranking, double precision) {
+        super(tuples, given_ranking, precision);
+    }
+
+    /**
+     * @param data All tuples of a relation in column-major order
+     * @param given_ranking The given ranking
+     * @param precision A threshold for ties
+    */
+    public CrossEntropy(ColumnStore data, int[] given_ranking, double precision) {
+        super(data, given_ranking, precision);
+    }
+
+    /**
+     * Use the cross-entropy method to get an approximately best ranking with a timeout limit
+     * @param timeout The timeout parameter, in ms
+     * @param k k in top-k. 0 means full dataset
+    */
+    public void optimize_timeout(int timeout, int k) {
+        optimize_timeout(timeout, k, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Use the cross-entropy method to get an approximately best ranking with a timeout limit, in parallel
+     * The best sample is the first one with the smallest error among the rounds evaluated before the deadline
+     * If the constraints leave no weights, no sample is drawn and the ranking is left as it is
+     * @param timeout The timeout parameter, in ms
+     * @param k k in top-k. 0 means full dataset
+     * @param seed The seed of the random stream
+    */
+    public void optimize_timeout(int timeout, int k, long seed) {
+        final int top = (k == 0) ? num_tuples : k;
+        long deadline = System.nanoTime() + timeout * 1000000L;
+
+        ColumnStore shared = data.thread_safe();
+        Solver evaluator = (shared == data) ? this : new Solver(shared, given_ranking, precision);
+        SplittableRandom random = new SplittableRandom(seed);
+        Polytope polytope = constraints.isEmpty() ? null : polytope();
+        double[] feasible = (polytope == null) ? null : polytope.interior_point();
+        int num_elites = Math.max((int) (ROUND_SIZE * ELITE_RATIO), 2);
+        double[] mean = uniform_mean();
+        double concentration = num_attributes;
+        // Errors beyond the worst elite of the previous round are only known to be worse
+        int budget = Integer.MAX_VALUE;
+
+        double[] weights_double = new double[num_attributes];
+        double[] best = null;
+        error = 1000000;
+        ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+        try {
+            while ((polytope == null || feasible != null) && System.nanoTime() - deadline < 0) {
+                double[][] samples = new double[ROUND_SIZE][num_attributes];
+                for (double[] sample : samples) {
+                    dirichlet(random, mean, concentration, sample);
+                    if (polytope != null && !polytope.project(sample)) {
+                        System.arraycopy(feasible, 0, sample, 0, num_attributes);
+                    }
+                }
+                int[] errors = evaluate(pool, evaluator, top, samples, budget, deadline);
+
+                Integer[] order = new Integer[ROUND_SIZE];
+                for (int b = 0; b < ROUND_SIZE; b++) {
+                    order[b] = b;
+                }
+                Arrays.sort(order, (x, y) -> (errors[x] != errors[y]) ? Integer.compare(errors[x], errors[y]) : x - y);
+                if (errors[order[0]] == Integer.MAX_VALUE) break;
+                if (best == null || errors[order[0]] < error) {
+                    error = errors[order[0]];
+                    best = samples[order[0]];
+                }
+
+                // Fit the distribution to the elites by the method of moments
+                double[] elite_mean = new double[num_attributes];
+                for (int e = 0; e < num_elites; e++) {
+                    for (int j = 0; j < num_attributes; j++) {
+                        elite_mean[j] += samples[order[e]][j] / num_elites;
+                    }
+                }
+                double fit = 0;
+                int num_fitted = 0;
+                for (int j = 0; j < num_attributes; j++) {
+                    double variance = 0;
+                    for (int e = 0; e < num_elites; e++) {
+                        double d = samples[order[e]][j] - elite_mean[j];
+                        variance += d * d / (num_elites - 1);
+                    }
+                    // Var(w_j) = mean_j * (1 - mean_j) / (concentration + 1) for a Dirichlet distribution
+                    if (variance > 0 && elite_mean[j] > 0 && elite_mean[j] < 1) {
+                        fit += elite_mean[j] * (1 - elite_mean[j]) / variance - 1;
+                        num_fitted++;
+                    }
+                }
+                fit = (num_fitted == 0) ? MAX_CONCENTRATION : fit / num_fitted;
+                for (int j = 0; j < num_attributes; j++) {
+                    mean[j] = SMOOTHING * elite_mean[j] + (1 - SMOOTHING) * mean[j];
+                }
+                concentration = SMOOTHING * Math.max(fit, num_attributes) + (1 - SMOOTHING) * concentration;
+                budget = errors[order[num_elites - 1]];
+
+                if (concentration >= MAX_CONCENTRATION) {
+                    mean = uniform_mean();
+                    concentration = num_attributes;
+                    budget = Integer.MAX_VALUE;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        if (best != null) {
+            weights_double = best;
+            weights = exact(best);
+            ranking = rank(top, weights);
+        }
+        for (int i = 0; i < num_attributes; i++) {
+            System.out.print(String.format("%.10f", weights_double[i]) + " ");
+        }
+        System.out.println();
+    }
+
+    /**
+     * @return The mean of the uniform distribution over the simplex
+    */
+    private double[] uniform_mean() {
+        double[] mean = new double[num_attributes];
+        Arrays.fill(mean, 1.0 / num_attributes);
+        return mean;
+    }
+
+    /**
+     * Evaluate the blocks of a round on the threads
+     * A block which starts after the deadline is not evaluated and its errors are Integer.MAX_VALUE
+     * @param pool The threads
+     * @param evaluator The solver whose store the threads can share
+     * @param k k in top-k
+     * @param samples The samples of the round
+     * @param budget The largest error of interest
+     * @param deadline The value of System.nanoTime after which no block is evaluated
+     * @return The error of each sample, exact up to the budget
+     * @see Solver#error_block
+    */
+    private int[] evaluate(ForkJoinPool pool, Solver evaluator, int k, double[][] samples, int budget, long deadline) {
+        int[] errors = new int[samples.length];
+        List<Callable<Void>> blocks = new ArrayList<Callable<Void>>();
+        for (int first = 0; first < samples.length; first += BLOCK_SIZE) {
+            final int from = first, to = Math.min(first + BLOCK_SIZE, samples.length);
+            blocks.add(() -> {
+                if (System.nanoTime() - deadline > 0) {
+                    Arrays.fill(errors, from, to, Integer.MAX_VALUE);
+                    return null;
+                }
+                BigDecimal[][] candidates = new BigDecimal[to - from][];
+                for (int b = from; b < to; b++) {
+                    candidates[b - from] = evaluator.exact(samples[b]);
+                }
+                System.arraycopy(evaluator.error_block(k, candidates, budget), 0, errors, from, to - from);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : pool.invokeAll(blocks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while sampling", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        return errors;
+    }
+
+    /**
+     * Draw a sample from the Dirichlet distribution with parameters concentration * mean, as normalized gamma variates
+     * @param random The random stream
+     * @param mean The mean of the distribution
+     * @param concentration The sum of the parameters
+     * @param sample One sample weight, filled in place
+    */
+    private void dirichlet(SplittableRandom random, double[] mean, double concentration, double[] sample) {
+        double sum = 0;
+        while (sum == 0) {
+            for (int j = 0; j < num_attributes; j++) {
+                sample[j] = gamma(random, Math.max(concentration * mean[j], MIN_ALPHA));
+                sum += sample[j];
+            }
+        }
+        for (int j = 0; j < num_attributes; j++) {
+            sample[j] /= sum;
+        }
+    }
+
+    /**
+     * Marsaglia and Tsang's method, boosted by a uniform power for shapes below 1
+     * @param random The random stream
+     * @param shape The shape of the gamma distribution, with scale 1
+     * @return A gamma variate
+    */
+    private static double gamma(SplittableRandom random, double shape) {
+        if (shape < 1) {
+            return gamma(random, shape + 1) * Math.pow(random.nextDouble(), 1 / shape);
+        }
+        double d = shape - 1.0 / 3, c = 1 / Math.sqrt(9 * d);
+        while (true) {
+            double x, v;
+            do {
+                x = gaussian(random);
+                v = 1 + c * x;
+            } while (v <= 0);
+            v = v * v * v;
+            double u = random.nextDouble();
+            if (u < 1 - 0.0331 * x * x * x * x || Math.log(u) < 0.5 * x * x + d * (1 - v + Math.log(v))) {
+                return d * v;
+            }
+        }
+    }
+}
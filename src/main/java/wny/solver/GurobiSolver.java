@@ -2,10 +2,22 @@ package wny.solver;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.gurobi.gurobi.*;
 
+import wny.entities.Cell;
+import wny.entities.CellBounds;
+import wny.entities.ColumnStore;
 import wny.entities.Constraint;
+import wny.entities.DuplicateGroups;
+import wny.entities.SimplexCell;
 import wny.entities.Treenode;
 import wny.entities.Tuple;
 import wny.util.CellFinder;
@@ -27,6 +39,14 @@ public class GurobiSolver extends Solver {
     private int node_count;
     private int fake_leaf_count;
     private int leaf_count;
+    // The number of the most promising cells whose bounds are tightened by the constraints before the cell bounds choose one
+    public int tightened_cells = 8;
+    // The number of tuples sampled to estimate the cell bounds while searching the most promising cell, 0 for exact bounds
+    public int sampled_tuples = 0;
+    // The number of descent chains run at the same time from the most promising cells, each with its own model, 1 for a single chain
+    public int num_starts = 1;
+    // The number of threads of each model, 0 for the default of gurobi
+    private int threads = 0;
     
     /** 
      * @param tuples All tuples of a relation
@@ -57,6 +77,30 @@ public class GurobiSolver extends Solver {
         fake_leaf_count = 0;
         leaf_count = 0;
     }
+
+    /** 
+     * @param data All tuples of a relation in column-major order
+     * @param given_ranking
+     * @param precision A threshold for ties
+    */
+    public GurobiSolver(ColumnStore data, int[] given_ranking, double precision, double epsilon) {
+        this(data, given_ranking, precision, epsilon, epsilon);
+    }
+
+    /** 
+     * @param data All tuples of a relation in column-major order
+     * @param given_ranking
+     * @param precision A threshold for ties
+    */
+    public GurobiSolver(ColumnStore data, int[] given_ranking, double precision, double epsilon, double extra_epsilon) {
+        super(data, given_ranking, precision);
+        this.epsilon = epsilon;
+        this.extra_epsilon = extra_epsilon;
+        program_count = 0;
+        node_count = 1;
+        fake_leaf_count = 0;
+        leaf_count = 0;
+    }
     
     /** 
      * Set up the environment and model
@@ -73,6 +117,9 @@ public class GurobiSolver extends Solver {
         if (timeout != 0) { 
             model.set(GRB.DoubleParam.TimeLimit, timeout);
         }
+        if (threads > 0) {
+            model.set(GRB.IntParam.Threads, threads);
+        }
 
         weights = new BigDecimal[num_attributes];
     }
@@ -180,7 +227,7 @@ public class GurobiSolver extends Solver {
         for (int i = 0; i < num_tuples; i++) {
             scores[i] = new BigDecimal(0.0);
             for (int j = 0; j < num_attributes; j++) {
-                BigDecimal value = new BigDecimal(Double.valueOf(tuples.get(i).values[j + 1]));
+                BigDecimal value = new BigDecimal(data.get(i, j));
                 scores[i] = scores[i].add(weights[j].multiply(value));
             }
         }
@@ -229,28 +276,31 @@ public class GurobiSolver extends Solver {
             model.addGenConstrAbs(position_error[i], difference[i], "abs" + String.valueOf(i));
         }
 
+        // Tuples with the same values have the same indicator, so one indicator weighted by the number of such tuples replaces them
+        DuplicateGroups groups = data.getGroups();
         for (int i = 0; i < k; i++) {
             int num_dominatees = 0, num_dominators = 0;
             GRBLinExpr sum_expr = new GRBLinExpr();
-            for (int j = 0; j < num_tuples; j++) {
-                if (i != j) {
-                    int comparison = tuples.get(i).isDominating(tuples.get(j), precision + epsilon);
+            for (int g = 0; g < groups.get_size(); g++) {
+                int j = groups.getRepresentative(g), multiplicity = groups.getMultiplicity(g, i);
+                if (multiplicity > 0) {
+                    int comparison = data.isDominating(i, j, precision + epsilon);
                     if (comparison == 0) {
                         GRBVar indicator = model.addVar(0, 1, 0.0, GRB.BINARY, "indicator" + i + ' ' + j);
                         expr = new GRBLinExpr();
                         for (int l = 0; l < num_attributes; l++) {
-                            expr.addTerm(Double.valueOf(tuples.get(j).values[l + 1]) - Double.valueOf(tuples.get(i).values[l + 1]), W[l]);
+                            expr.addTerm(data.get(j, l) - data.get(i, l), W[l]);
                         }
                         model.addGenConstrIndicator(indicator, 1, expr, GRB.GREATER_EQUAL, precision + epsilon, "win_inequality" + i + ' ' + j);
                         // Used for one parameter
                         // model.addGenConstrIndicator(indicator, 0, expr, GRB.LESS_EQUAL, precision - epsilon, "lose_inequality" + i + ' ' + j);
                         // Used for two parameters
                         model.addGenConstrIndicator(indicator, 0, expr, GRB.LESS_EQUAL, precision - extra_epsilon, "lose_inequality" + i + ' ' + j);
-                        sum_expr.addTerm(1, indicator);
+                        sum_expr.addTerm(multiplicity, indicator);
                     } else if (comparison == 1) {
-                        num_dominatees++;
+                        num_dominatees += multiplicity;
                     } else if (comparison == -1) {
-                        num_dominators++;
+                        num_dominators += multiplicity;
                     }
                 }
             }
@@ -309,8 +359,8 @@ public class GurobiSolver extends Solver {
 
                     expr = new GRBLinExpr();
                     for (int l = 0; l < num_attributes; l++) {
-                        expr.addTerm(Double.valueOf(tuples.get(i).values[l + 1]) - Double.valueOf(tuples.get(j).values[l + 1]), W[l]);
-                        // normalization_expr.addTerm(Double.valueOf(tuples.get(i).values[l + 1]) - Double.valueOf(tuples.get(j).values[l + 1]), W[l]);
+                        expr.addTerm(data.get(i, l) - data.get(j, l), W[l]);
+                        // normalization_expr.addTerm(data.get(i, l) - data.get(j, l), W[l]);
                     }
                 
                     expr.addTerm(1, penalty);
@@ -322,8 +372,8 @@ public class GurobiSolver extends Solver {
 
                     expr = new GRBLinExpr();
                     for (int l = 0; l < num_attributes; l++) {
-                        expr.addTerm(Double.valueOf(tuples.get(i).values[l + 1]) - Double.valueOf(tuples.get(j).values[l + 1]), W[l]);
-                        // normalization_expr.addTerm(Double.valueOf(tuples.get(i).values[l + 1]) - Double.valueOf(tuples.get(j).values[l + 1]), W[l]);
+                        expr.addTerm(data.get(i, l) - data.get(j, l), W[l]);
+                        // normalization_expr.addTerm(data.get(i, l) - data.get(j, l), W[l]);
                     }
 
                     expr.addTerm(1, penalty);
@@ -332,8 +382,8 @@ public class GurobiSolver extends Solver {
 
                     expr = new GRBLinExpr();
                     for (int l = 0; l < num_attributes; l++) {
-                        expr.addTerm(Double.valueOf(tuples.get(j).values[l + 1]) - Double.valueOf(tuples.get(i).values[l + 1]), W[l]);
-                        // normalization_expr.addTerm(Double.valueOf(tuples.get(j).values[l + 1]) - Double.valueOf(tuples.get(i).values[l + 1]), W[l]);
+                        expr.addTerm(data.get(j, l) - data.get(i, l), W[l]);
+                        // normalization_expr.addTerm(data.get(j, l) - data.get(i, l), W[l]);
                     }
 
                     expr.addTerm(1, penalty2);
@@ -366,25 +416,67 @@ public class GurobiSolver extends Solver {
      * If a timeout parameter is given, the algorithm increases the size of the cell when using current cell size does not improve the error any more;
      * otherwise the algorithm stops when gradient descent does not improve the error any more
      * @param cell_selection The method to select a cell. 1 for Ordinal Regression, 2 for cell bounds
+     * The cells are simplicial cells when simplicial_cells is set
+     * With cell bounds and num_starts larger than 1, one chain descends from each of the num_starts most promising cells
+     * at the same time, and the result is that of the chain with the smallest error
      * @return Whether the solver gets an optimal result or an infeasible result
      * @throws GRBException
     */
     public void optimize_gradient_descent(int k, double cell_size, int timeout, int cell_selection) throws GRBException {
         long start = System.currentTimeMillis();
         double point[] = new double[num_attributes];
+        SimplexCell cell = null;
         if (cell_selection == 1) {
             optimize_score(k);
             point = getWeights();
         } else if (cell_selection == 2) {
-            CellFinder cf = new CellFinder(tuples, given_ranking, precision + epsilon);
-            point = cf.find(k, cell_size);
+            CellFinder cf = new CellFinder(data, given_ranking, precision + epsilon);
+            cf.num_tightened = tightened_cells;
+            cf.sample_size = sampled_tuples;
+            for (Constraint c : constraints) {
+                double[] row = new double[num_attributes];
+                double bound = compile(c, row);
+                if (!Double.isNaN(bound)) cf.restrict(row, bound);
+            }
+            if (num_starts > 1) {
+                List<? extends Cell> cells = simplicial_cells ? cf.find_simplices(k, cell_size, num_starts) : cf.find_cells(k, cell_size, num_starts);
+                descend_all(k, simplicial_cells ? cells.get(0).size() : cell_size, timeout, start, cells);
+                return;
+            }
+            if (simplicial_cells) {
+                cell = cf.find_simplex(k, cell_size);
+                cell_size = cell.size();
+            } else {
+                point = cf.find(k, cell_size);
+            }
+        }
+        if (cell != null) {
+            build_cell(cell);
+        } else {
+            build_cell(point, cell_size);
         }
-        build_cell(point, cell_size);
+        descend(k, cell_size, timeout, start, (cell != null) ? cell : cell(point, cell_size), null);
+    }
+
+    /** 
+     * Run one chain of gradient descent from the cell built in the constraints, as described in optimize_gradient_descent
+     * @param k
+     * @param cell_size
+     * @param timeout The timeout parameter for the solver, in ms, 0 for no timeout given
+     * @param start The time when the descent started
+     * @param first The cell built in the constraints
+     * @param chain The state shared with the other chains of a multi-start, null for a single chain
+     * @throws GRBException
+    */
+    private void descend(int k, double cell_size, int timeout, long start, Cell first, Chain chain) throws GRBException {
+        track(k, first);
 
         int e = num_tuples * k;
         int step = 0;
 
-        if (timeout == 0) {
+        if (chain != null && chain.beaten()) {
+            System.out.println("Stopped before the first step: the cell cannot beat error " + chain.best.get());
+        } else if (timeout == 0) {
             while (true) {
                 optimize_position(k, timeout);
                 if (error >= e) {
@@ -399,6 +491,12 @@ public class GurobiSolver extends Solver {
                     step++;
                     clearConstraint();
                     build_cell(getWeights(), cell_size);
+                    Cell next = cell(getWeights(), cell_size);
+                    track(k, next);
+                    if (chain != null && chain.beaten(next, error)) {
+                        System.out.println("Number of steps: " + step + ", stopped as the cell cannot beat error " + chain.best.get());
+                        break;
+                    }
                 }
             }
         } else {
@@ -415,6 +513,13 @@ public class GurobiSolver extends Solver {
                     if (cell_size > 1) break;
                     System.out.println("Updated Cell size: " + cell_size);
                     build_cell(getWeights(), cell_size);
+                    Cell next = cell(getWeights(), cell_size);
+                    track(k, next);
+                    if (chain != null && chain.beaten(next, e)) {
+                        System.out.println("Step: " + step + ", stopped as the cell cannot beat error " + chain.best.get());
+                        error = e;
+                        break;
+                    }
                 } else if (error == 0) {
                     System.out.println("Number of steps: " + step);
                     break;
@@ -427,9 +532,160 @@ public class GurobiSolver extends Solver {
                     }
                     clearConstraint();
                     build_cell(getWeights(), cell_size);
+                    Cell next = cell(getWeights(), cell_size);
+                    track(k, next);
+                    if (chain != null && chain.beaten(next, error)) {
+                        System.out.println("Step: " + step + ", stopped as the cell cannot beat error " + chain.best.get());
+                        break;
+                    }
                 }
             }
         }
+        if (chain != null) chain.best.accumulateAndGet(error, Math::min);
+        stop_tracking();
+    }
+
+    /** 
+     * Run one chain of gradient descent from each cell on its own solver and model at the same time, and keep the result of the best chain
+     * The threads of the machine are divided among the models, and the chains share the smallest error found so far:
+     * each chain bounds every new cell from its previous one, and stops once the lower bound of its cell is not smaller than that error
+     * @param k
+     * @param cell_size The size of the cells
+     * @param timeout The timeout parameter for the solver of each chain, in ms, 0 for no timeout given
+     * @param start The time when the descent started
+     * @param cells The cells to start from, bounded
+     * @throws GRBException
+    */
+    private void descend_all(int k, double cell_size, int timeout, long start, List<? extends Cell> cells) throws GRBException {
+        // A store computing its values on access is copied, since the chains read it at the same time
+        ColumnStore shared = data.thread_safe();
+        CellBounds bounds = new CellBounds(shared, given_ranking, k, precision + epsilon);
+        AtomicInteger best = new AtomicInteger(Integer.MAX_VALUE);
+        int budget = Math.max(Runtime.getRuntime().availableProcessors() / cells.size(), 1);
+
+        ArrayList<GurobiSolver> solvers = new ArrayList<GurobiSolver>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (Cell cell : cells) {
+            GurobiSolver solver = new GurobiSolver(shared, given_ranking, precision, epsilon, extra_epsilon);
+            solver.simplicial_cells = simplicial_cells;
+            solver.threads = budget;
+            solver.constraints = new ArrayList<Constraint>(constraints);
+            // No error until the first step, which no other chain should take as the best one
+            solver.error = Integer.MAX_VALUE;
+            if (cell instanceof SimplexCell) {
+                solver.build_cell((SimplexCell) cell);
+            } else {
+                solver.build_cell(cell.getCenter(), cell_size);
+            }
+            Chain chain = new Chain(bounds, best, cell);
+            solvers.add(solver);
+            tasks.add(() -> {
+                solver.descend(k, cell_size, timeout, start, cell, chain);
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(cells.size());
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while descending", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GRBException) throw (GRBException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        GurobiSolver best_solver = solvers.get(0);
+        for (GurobiSolver solver : solvers) {
+            if (solver.error < best_solver.error) best_solver = solver;
+        }
+        error = best_solver.error;
+        weights = best_solver.weights;
+        ranking = best_solver.ranking;
+        System.out.println("Best error of " + cells.size() + " chains: " + error);
+    }
+
+    /** 
+     * Track the ranking in the box around the cell which build_cell constrains the weights to, so the ranking of the step is updated
+     * from the tuples which may reach a top-k tuple in the cell; the ranking of all tuples is not tracked
+     * @param k
+     * @param cell The cell of the next step
+    */
+    private void track(int k, Cell cell) {
+        stop_tracking();
+        if (k == 0) return;
+        double[] lower = new double[num_attributes], upper = new double[num_attributes];
+        if (cell instanceof SimplexCell) {
+            Arrays.fill(lower, 1);
+            for (double[] vertex : ((SimplexCell) cell).getVertices()) {
+                for (int i = 0; i < num_attributes; i++) {
+                    lower[i] = Math.min(lower[i], vertex[i]);
+                    upper[i] = Math.max(upper[i], vertex[i]);
+                }
+            }
+        } else {
+            for (int i = 0; i < num_attributes; i++) {
+                lower[i] = cell.getCenter()[i] - cell.size() / 2;
+                upper[i] = cell.getCenter()[i] + cell.size() / 2;
+            }
+        }
+        for (int i = 0; i < num_attributes; i++) {
+            lower[i] = Math.max(lower[i], 0);
+            upper[i] = Math.min(upper[i], 1);
+        }
+        track(k, lower, upper);
+    }
+
+    /** 
+     * @param point The center of a cell
+     * @param size The size of the cell
+     * @return The cell which build_cell constrains the weights to
+    */
+    private Cell cell(double[] point, double size) {
+        return simplicial_cells ? SimplexCell.around(point, size) : new Cell(point, size);
+    }
+
+    /** 
+     * The state of one chain of a multi-start: the bounds and the smallest error shared by all chains, and the last cell of the chain
+    */
+    private static class Chain {
+        private final CellBounds bounds;
+        private final AtomicInteger best;
+        private Cell cell;
+
+        Chain(CellBounds bounds, AtomicInteger best, Cell cell) {
+            this.bounds = bounds;
+            this.best = best;
+            this.cell = cell;
+        }
+
+        /** 
+         * @return Whether the lower bound of the cell of the chain is not smaller than the smallest error of all chains
+        */
+        boolean beaten() {
+            return cell.lower_bound >= best.get();
+        }
+
+        /** 
+         * Share the error of the chain, and bound the next cell of the chain from its previous one
+         * @param next The next cell of the chain
+         * @param error The error of the chain so far
+         * @return Whether the next cell cannot have a smaller error than the smallest one of all chains
+        */
+        boolean beaten(Cell next, int error) {
+            best.accumulateAndGet(error, Math::min);
+            bounds.rebound(next, cell);
+            cell.signature = null;
+            cell = next;
+            return beaten();
+        }
     }
 
     /** 
@@ -614,7 +870,7 @@ public class GurobiSolver extends Solver {
             for (int j = i + 1; j < num_tuples; j++) {
                 ArrayList<Double> inequality = new ArrayList<Double>();
                 for (int l = 0; l < num_attributes; l++) {
-                    inequality.add(Double.valueOf(tuples.get(i).values[l + 1]) - Double.valueOf(tuples.get(j).values[l + 1]));
+                    inequality.add(data.get(i, l) - data.get(j, l));
                 }
                 inequalities.add(inequality);
             }
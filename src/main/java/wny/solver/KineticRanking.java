@@ -0,0 +1,587 @@
+package wny.solver;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import wny.entities.ColumnStore;
+import wny.entities.DuplicateGroups;
+import wny.util.ScoringKernel;
+
+/**
+ * The positions of the top-k tuples, kept up to date while the weights move slightly inside a box
+ * The markers of the top-k tuples are the thresholds S_i + precision when the precision is positive, and the top-k tuples themselves otherwise
+ * The markers and the tuples ahead of the last marker form a band kept in its order under the current weights;
+ * the other tuples are behind all markers, are not counted by any top-k tuple and are not kept in order
+ * When the weights move from w to w', the order along the segment only changes where a pair hyperplane is crossed,
+ * so the order at w' is restored from the order at w by insertion sort, whose swaps are exactly the pairs that flip
+ * Each flip updates the positions and the error in constant time, and exact scores are only computed for pairs too close to decide in double precision
+ * A tuple out of the band is only scored again once the weights may have moved far enough for it to reach a marker,
+ * so an update scores the band and the tuples which are due, and nothing is sorted again
+ * Tuples whose score stays below all markers, or above all of them, anywhere in the box are not relevant and are counted once
+ * The positions are the same as Solver.rank(k, weights)
+ * @see Solver#rank(int, BigDecimal[])
+*/
+public class KineticRanking {
+    private Solver solver;
+    private int k;
+    private int num_top;
+    private int num_attributes;
+    private double[] lower;
+    private double[] upper;
+    // The relevant tuples in their original order, the top-k tuples first
+    private int[] tuples;
+    private int num_relevant;
+    // Elements 0 to num_relevant - 1 are the relevant tuples, the following ones the thresholds of the top-k tuples
+    private int num_elements;
+    private boolean has_thresholds;
+    private double[][] columns;
+    private double[] norms;
+    private double[] keys;
+    private double[] errors;
+    private BigDecimal[] exact;
+    // The elements whose exact keys are computed under the current weights
+    private int[] cached;
+    private int num_cached;
+    private BigDecimal[] exact_weights;
+    private double[] w;
+    private double coefficient;
+    // The largest sum of the absolute values of a top-k tuple
+    private double max_top_norm;
+    // The elements of the band in the order of the current weights
+    private int[] order;
+    private int band_size;
+    private boolean[] in_band;
+    private boolean sorted;
+    // The largest difference of a weight from the reference weights, and the drift at which each tuple out of the band is scored again
+    private BigDecimal[] reference;
+    private double drift;
+    private int num_rescored;
+    private double[] due;
+    private int[] heap;
+    private int heap_size;
+    private int[] deferred;
+    // The number of tuples above all markers anywhere in the box
+    private int num_above;
+    private int[] positions;
+    private int error;
+    private long num_flips;
+
+    /**
+     * Track the ranking for any weights
+     * @param solver The solver holding the relation, the given ranking and the precision
+     * @param k k in top-k
+    */
+    public KineticRanking(Solver solver, int k) {
+        this(solver, k, null, null);
+    }
+
+    /**
+     * Track the ranking for the weights inside a box
+     * @param solver The solver holding the relation, the given ranking and the precision
+     * @param k k in top-k
+     * @param lower The lowest weight of each attribute, null for no bound
+     * @param upper The highest weight of each attribute, null for no bound
+    */
+    public KineticRanking(Solver solver, int k, double[] lower, double[] upper) {
+        this.solver = solver;
+        this.k = k;
+        this.lower = lower;
+        this.upper = upper;
+        int num_tuples = solver.num_tuples;
+        num_top = Math.max(Math.min(k, num_tuples), 0);
+        num_attributes = solver.num_attributes;
+        has_thresholds = solver.precision > 0;
+
+        tuples = new int[num_tuples];
+        if (lower == null || upper == null) {
+            for (int i = 0; i < num_tuples; i++) {
+                tuples[i] = i;
+            }
+            num_relevant = num_tuples;
+        } else {
+            select_relevant();
+        }
+        tuples = Arrays.copyOf(tuples, num_relevant);
+
+        ColumnStore store = solver.data.reorder(tuples);
+        columns = new double[num_attributes][];
+        for (int j = 0; j < num_attributes; j++) {
+            columns[j] = store.getColumn(j);
+        }
+        norms = new double[num_relevant];
+        double[] ones = new double[num_attributes];
+        Arrays.fill(ones, 1);
+        ScoringKernel.getInstance().score_abs(columns, 0, num_relevant, ones, norms);
+
+        num_elements = num_relevant + (has_thresholds ? num_top : 0);
+        keys = new double[num_elements];
+        errors = new double[num_elements];
+        exact = new BigDecimal[num_elements];
+        order = new int[num_elements];
+        in_band = new boolean[num_elements];
+        cached = new int[num_elements];
+        w = new double[num_attributes];
+        for (int e = 0; e < num_top; e++) {
+            max_top_norm = Math.max(max_top_norm, norms[e]);
+        }
+        due = new double[num_relevant];
+        heap = new int[num_relevant];
+        deferred = new int[num_relevant];
+        positions = new int[num_top];
+    }
+
+    /**
+     * Keep the top-k tuples and the tuples whose score can reach a threshold of a top-k tuple inside the box
+     * The ranges of the scores in the box are widened by a bound of their rounding errors
+    */
+    private void select_relevant() {
+        double shift = Math.max(solver.precision, 0);
+        double low = Double.POSITIVE_INFINITY, high = Double.NEGATIVE_INFINITY;
+        double[] range = new double[2];
+        for (int i = 0; i < num_top; i++) {
+            score_range(i, range);
+            low = Math.min(low, range[0]);
+            high = Math.max(high, range[1]);
+            tuples[i] = i;
+        }
+        low = low + shift - 4 * Solver.EPSILON * (Math.abs(low) + shift);
+        high = high + shift + 4 * Solver.EPSILON * (Math.abs(high) + shift);
+
+        num_relevant = num_top;
+        for (int j = num_top; j < solver.num_tuples; j++) {
+            score_range(j, range);
+            if (range[0] > high) {
+                num_above++;
+            } else if (range[1] >= low) {
+                tuples[num_relevant++] = j;
+            }
+        }
+    }
+
+    /**
+     * @param tuple The index of a tuple
+     * @param range The lowest and the highest score of the tuple inside the box
+    */
+    private void score_range(int tuple, double[] range) {
+        double min = 0, max = 0, bound = 0;
+        for (int j = 0; j < num_attributes; j++) {
+            double value = solver.data.get(tuple, j);
+            double a = lower[j] * value, b = upper[j] * value;
+            min += Math.min(a, b);
+            max += Math.max(a, b);
+            bound += Math.max(Math.abs(a), Math.abs(b));
+        }
+        double tolerance = (2 * num_attributes + 8) * Solver.EPSILON * bound + num_attributes * Double.MIN_NORMAL;
+        range[0] = min - tolerance;
+        range[1] = max + tolerance;
+    }
+
+    /**
+     * @param exact_weights The weights
+     * @return Whether the weights are inside the box
+    */
+    public boolean contains(BigDecimal[] exact_weights) {
+        if (lower == null || upper == null) return true;
+        for (int j = 0; j < num_attributes; j++) {
+            if (exact_weights[j].compareTo(new BigDecimal(lower[j])) < 0 || exact_weights[j].compareTo(new BigDecimal(upper[j])) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Move to new weights
+     * The first call sorts the relevant tuples, the following ones only swap the pairs which flip in the band
+     * @param exact_weights The new weights, inside the box
+    */
+    public void update(BigDecimal[] exact_weights) {
+        if (!contains(exact_weights)) {
+            throw new IllegalArgumentException("The weights are outside of the box of the tracked ranking");
+        }
+        this.exact_weights = exact_weights;
+        coefficient = solver.kernel_weights(exact_weights, w);
+        for (int t = 0; t < num_cached; t++) {
+            exact[cached[t]] = null;
+        }
+        num_cached = 0;
+        num_flips = 0;
+
+        if (sorted) {
+            drift = 0;
+            for (int j = 0; j < num_attributes; j++) {
+                drift = Math.max(drift, exact_weights[j].subtract(reference[j]).abs().doubleValue());
+            }
+            // Rounded up, so that the drift is never below the distance
+            drift = Math.nextUp(drift);
+            if (num_rescored > num_relevant) {
+                rebase();
+            } else {
+                for (int e = 0; e < num_top; e++) {
+                    score(e);
+                }
+                for (int t = 0; t < band_size; t++) {
+                    if (order[t] >= num_top && order[t] < num_relevant) {
+                        score(order[t]);
+                    }
+                }
+                score_thresholds();
+            }
+            enter_band();
+            insertion_sort();
+        } else {
+            reference = exact_weights;
+            score_all();
+            initial_sort();
+            sorted = true;
+        }
+        leave_band();
+    }
+
+    /**
+     * Measure the drift from the current weights again, once the tuples scored again since the last reference are as many as the relevant tuples
+     * All relevant tuples are scored and the tuples out of the band are scheduled again
+    */
+    private void rebase() {
+        reference = exact_weights;
+        drift = 0;
+        num_rescored = 0;
+        score_all();
+        double low = lowest_marker();
+        int[] scheduled = Arrays.copyOf(heap, heap_size);
+        heap_size = 0;
+        for (int e : scheduled) {
+            // Tuples which may reach a marker are due at once
+            schedule(e, low);
+            push(e);
+        }
+    }
+
+    private void score_all() {
+        ScoringKernel.getInstance().score(columns, 0, num_relevant, w, keys);
+        for (int e = 0; e < num_relevant; e++) {
+            errors[e] = solver.score_error(coefficient, norms[e], keys[e]);
+        }
+        score_thresholds();
+    }
+
+    /**
+     * @param e A relevant tuple
+    */
+    private void score(int e) {
+        double key = 0;
+        for (int j = 0; j < num_attributes; j++) {
+            key += w[j] * columns[j][e];
+        }
+        keys[e] = key;
+        errors[e] = solver.score_error(coefficient, norms[e], key);
+    }
+
+    private void score_thresholds() {
+        if (has_thresholds) {
+            for (int u = 0; u < num_top; u++) {
+                keys[num_relevant + u] = keys[u] + solver.precision;
+                errors[num_relevant + u] = errors[u] + Solver.EPSILON * (Math.abs(keys[u]) + solver.precision);
+            }
+        }
+    }
+
+    /**
+     * @param e An element
+     * @return Whether the element is the marker of a top-k tuple
+    */
+    private boolean is_marker(int e) {
+        return has_thresholds ? e >= num_relevant : e < num_top;
+    }
+
+    /**
+     * @return A lower bound of the exact keys of all markers, which are always in the band
+    */
+    private double lowest_marker() {
+        double low = Double.POSITIVE_INFINITY;
+        for (int t = 0; t < band_size; t++) {
+            if (is_marker(order[t])) {
+                low = Math.min(low, keys[order[t]] - errors[order[t]]);
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Tuples which may be ahead of a marker under the new weights enter the band at its end, behind all markers as before
+     * Only the top-k tuples and the tuples whose drift is due are scored again
+    */
+    private void enter_band() {
+        double low = lowest_marker();
+        for (int e = 0; e < num_top; e++) {
+            if (!in_band[e] && gap(e, low) <= 0) {
+                append(e);
+            }
+        }
+        int num_deferred = 0;
+        while (heap_size > 0 && due[heap[0]] <= drift) {
+            int e = pop();
+            score(e);
+            num_rescored++;
+            if (gap(e, low) <= 0) {
+                append(e);
+            } else if (schedule(e, low)) {
+                push(e);
+            } else {
+                // Behind all markers now, but due again at the next update
+                deferred[num_deferred++] = e;
+            }
+        }
+        for (int t = 0; t < num_deferred; t++) {
+            push(deferred[t]);
+        }
+    }
+
+    /**
+     * Tuples behind all markers leave the band
+     * The other tuples are scheduled to be scored again when the weights may have moved enough for them to reach a marker
+    */
+    private void leave_band() {
+        double low = lowest_marker();
+        while (band_size > 0 && !is_marker(order[band_size - 1])) {
+            int e = order[--band_size];
+            in_band[e] = false;
+            if (e >= num_top) {
+                schedule(e, low);
+                push(e);
+            }
+        }
+    }
+
+    /**
+     * @param e A relevant tuple
+     * @param low A lower bound of the exact keys of all markers
+     * @return A lower bound of the distance between the exact score of the tuple and all markers
+    */
+    private double gap(int e, double low) {
+        return low - (keys[e] + errors[e] + 4 * Solver.EPSILON * (Math.abs(keys[e]) + Math.abs(low)));
+    }
+
+    /**
+     * When the weights move by at most d on each attribute, a score moves by at most d times the sum of the absolute values of the tuple,
+     * so the tuple stays behind all markers while the weights stay within gap / speed of the current ones,
+     * which holds while the drift from the reference stays below gap / speed - drift
+     * @param e A relevant tuple behind all markers
+     * @param low A lower bound of the exact keys of all markers
+     * @return Whether the drift at which the tuple is scored again is beyond the current one, otherwise it is due at once
+    */
+    private boolean schedule(int e, double low) {
+        double speed = (norms[e] + max_top_norm) * (1 + 4 * num_attributes * Solver.EPSILON);
+        due[e] = Math.nextDown(gap(e, low) / speed * (1 - 4 * Solver.EPSILON) - drift);
+        if (due[e] > drift) return true;
+        // The drift may also decrease, so a tuple which is not safe now is due at any drift
+        due[e] = Double.NEGATIVE_INFINITY;
+        return false;
+    }
+
+    /**
+     * @param e A tuple entering the band
+    */
+    private void append(int e) {
+        order[band_size++] = e;
+        in_band[e] = true;
+    }
+
+    /**
+     * @param e A tuple leaving the band, into the heap ordered by the drift at which it is due
+    */
+    private void push(int e) {
+        int t = heap_size++;
+        while (t > 0 && due[heap[(t - 1) / 2]] > due[e]) {
+            heap[t] = heap[(t - 1) / 2];
+            t = (t - 1) / 2;
+        }
+        heap[t] = e;
+    }
+
+    /**
+     * @return The tuple which is due first, removed from the heap
+    */
+    private int pop() {
+        int top = heap[0], e = heap[--heap_size], t = 0;
+        while (2 * t + 1 < heap_size) {
+            int child = 2 * t + 1;
+            if (child + 1 < heap_size && due[heap[child + 1]] < due[heap[child]]) {
+                child++;
+            }
+            if (due[heap[child]] >= due[e]) break;
+            heap[t] = heap[child];
+            t = child;
+        }
+        heap[t] = e;
+        return top;
+    }
+
+    /**
+     * Sort all elements and count the positions from scratch
+    */
+    private void initial_sort() {
+        Integer[] elements = new Integer[num_elements];
+        for (int e = 0; e < num_elements; e++) {
+            elements[e] = e;
+        }
+        Arrays.sort(elements, (a, b) -> compare(a, b));
+
+        int num_ahead = num_above;
+        for (int t = 0; t < num_elements; t++) {
+            int e = elements[t];
+            order[t] = e;
+            in_band[e] = true;
+            if (e >= num_relevant) {
+                positions[e - num_relevant] = 1 + num_ahead;
+            } else {
+                if (!has_thresholds && e < num_top) {
+                    positions[e] = 1 + num_ahead;
+                }
+                num_ahead++;
+            }
+        }
+        band_size = num_elements;
+        error = 0;
+        for (int u = 0; u < num_top; u++) {
+            error += Math.abs(positions[u] - solver.given_ranking[u]);
+        }
+    }
+
+    /**
+     * Restore the order of the band under the new weights, swapping each flipped pair once
+    */
+    private void insertion_sort() {
+        for (int t = 1; t < band_size; t++) {
+            int x = order[t], s = t;
+            while (s > 0 && compare(x, order[s - 1]) < 0) {
+                flip(x, order[s - 1]);
+                order[s] = order[s - 1];
+                s--;
+            }
+            order[s] = x;
+        }
+    }
+
+    /**
+     * @param ahead The element moving ahead
+     * @param behind The element falling behind
+    */
+    private void flip(int ahead, int behind) {
+        num_flips++;
+        boolean ahead_tuple = ahead < num_relevant, behind_tuple = behind < num_relevant;
+        if (ahead_tuple && !behind_tuple) {
+            move(behind - num_relevant, 1);
+        } else if (!ahead_tuple && behind_tuple) {
+            move(ahead - num_relevant, -1);
+        } else if (ahead_tuple && !has_thresholds) {
+            if (behind < num_top) move(behind, 1);
+            if (ahead < num_top) move(ahead, -1);
+        }
+    }
+
+    /**
+     * @param u The index of a top-k tuple
+     * @param change The change of its position
+    */
+    private void move(int u, int change) {
+        error -= Math.abs(positions[u] - solver.given_ranking[u]);
+        positions[u] += change;
+        error += Math.abs(positions[u] - solver.given_ranking[u]);
+    }
+
+    /**
+     * Elements are in descending order of their keys; with equal exact keys,
+     * tuples are before thresholds (S_j >= S_i + precision counts tuple j for tuple i) and the larger index is first
+     * @param a An element
+     * @param b Another element
+     * @return A negative number if a is before b, a positive number otherwise
+    */
+    private int compare(int a, int b) {
+        if (a == b) return 0;
+        double difference = keys[a] - keys[b];
+        double margin = errors[a] + errors[b] + 4 * Solver.EPSILON * (Math.abs(keys[a]) + Math.abs(keys[b]));
+        if (difference > margin) return -1;
+        if (difference < -margin) return 1;
+
+        boolean a_tuple = a < num_relevant, b_tuple = b < num_relevant;
+        int comparison;
+        // Tuples with the same values have the same exact score
+        DuplicateGroups groups = solver.data.getGroups();
+        if (a_tuple == b_tuple && groups.getGroup(tuple(a)) == groups.getGroup(tuple(b))) {
+            comparison = 0;
+        } else {
+            comparison = exact_key(b).compareTo(exact_key(a));
+        }
+        if (comparison != 0) return comparison;
+        if (a_tuple && b_tuple) return Integer.compare(tuple(b), tuple(a));
+        if (a_tuple) return -1;
+        if (b_tuple) return 1;
+        return Integer.compare(a, b);
+    }
+
+    /**
+     * @param e An element
+     * @return The tuple of the element, or of its threshold
+    */
+    private int tuple(int e) {
+        return e < num_relevant ? tuples[e] : tuples[e - num_relevant];
+    }
+
+    /**
+     * @param e An element
+     * @return The exact key of the element under the current weights
+    */
+    private BigDecimal exact_key(int e) {
+        if (exact[e] == null) {
+            BigDecimal score = solver.exact_score(tuple(e), exact_weights);
+            exact[e] = e < num_relevant ? score : score.add(new BigDecimal(solver.precision));
+            cached[num_cached++] = e;
+        }
+        return exact[e];
+    }
+
+    /**
+     * @return The ranking, with positions only for the first k tuples
+    */
+    public int[] getRanking() {
+        int[] ranking = new int[solver.num_tuples];
+        System.arraycopy(positions, 0, ranking, 0, num_top);
+        return ranking;
+    }
+
+    /**
+     * @return The error of the ranking against the given ranking, as RankingMeasurer.error(k)
+    */
+    public int getError() {
+        return error;
+    }
+
+    /**
+     * @return k in top-k
+    */
+    public int get_k() {
+        return k;
+    }
+
+    /**
+     * @return The number of pairs which flipped in the last update
+    */
+    public long get_num_flips() {
+        return num_flips;
+    }
+
+    /**
+     * @return The number of relevant tuples
+    */
+    public int get_num_relevant() {
+        return num_relevant;
+    }
+
+    /**
+     * @return The number of elements kept in order, including the markers
+    */
+    public int get_band_size() {
+        return band_size;
+    }
+}
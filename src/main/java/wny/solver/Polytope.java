@@ -0,0 +1,173 @@
+package wny.solver;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+/**
+ * The feasible weights as a polytope: the simplex of weights cut by linear constraints row * w <= bound
+ * The points stay on the hyperplane where the weights sum to 1, so every constraint is kept by its projection on the hyperplane
+ * Points are drawn by a hit-and-run walk: from the current point, a random direction in the hyperplane is chosen
+ * and the next point is uniform on the chord of the polytope along the direction, so every point is feasible
+ * and the walk converges to the uniform distribution on the polytope without rejecting any point
+*/
+public class Polytope {
+    // The largest number of projections looking for a feasible point
+    private static final int MAX_PROJECTIONS = 100000;
+    // How far inside a violated constraint the projection puts the point, so that the feasible point is not on its boundary
+    private static final double MARGIN = 1e-9;
+
+    private int num_attributes;
+    private ArrayList<double[]> rows;
+    private ArrayList<Double> bounds;
+    // The projection of each row on the hyperplane, and its squared length
+    private ArrayList<double[]> projected_rows;
+    private ArrayList<Double> lengths;
+
+    /**
+     * The simplex of weights, with all weights at least 0
+     * @param num_attributes The number of weights
+    */
+    public Polytope(int num_attributes) {
+        this.num_attributes = num_attributes;
+        rows = new ArrayList<double[]>();
+        bounds = new ArrayList<Double>();
+        projected_rows = new ArrayList<double[]>();
+        lengths = new ArrayList<Double>();
+        for (int j = 0; j < num_attributes; j++) {
+            double[] row = new double[num_attributes];
+            row[j] = -1;
+            add(row, 0);
+        }
+    }
+
+    /**
+     * Add the constraint row * w <= bound
+     * @param row The coefficient of each weight
+     * @param bound The bound
+    */
+    public void add(double[] row, double bound) {
+        double mean = 0, length = 0;
+        for (int j = 0; j < num_attributes; j++) {
+            mean += row[j] / num_attributes;
+        }
+        double[] projected = new double[num_attributes];
+        for (int j = 0; j < num_attributes; j++) {
+            projected[j] = row[j] - mean;
+            length += projected[j] * projected[j];
+        }
+        rows.add(row.clone());
+        bounds.add(bound);
+        projected_rows.add(projected);
+        lengths.add(length);
+    }
+
+    /**
+     * Restrict a weight to a range
+     * @param attribute The index of a weight
+     * @param lower The lowest value of the weight
+     * @param upper The highest value of the weight
+    */
+    public void add_range(int attribute, double lower, double upper) {
+        double[] row = new double[num_attributes];
+        row[attribute] = -1;
+        add(row, -lower);
+        row[attribute] = 1;
+        add(row, upper);
+    }
+
+    /**
+     * Project the center of the simplex on the most violated constraint until no constraint is violated,
+     * which converges when the polytope has an interior
+     * @return A feasible point, null if none is found
+    */
+    public double[] interior_point() {
+        double[] point = new double[num_attributes];
+        for (int j = 0; j < num_attributes; j++) {
+            point[j] = 1.0 / num_attributes;
+        }
+        return project(point) ? point : null;
+    }
+
+    /**
+     * Project a point on the hyperplane on the most violated constraint until no constraint is violated,
+     * so a feasible point is left as it is and an infeasible one is moved to a nearby feasible point
+     * @param point A point whose weights sum to 1, moved in place
+     * @return Whether the point is feasible
+    */
+    public boolean project(double[] point) {
+        for (int iteration = 0; iteration < MAX_PROJECTIONS; iteration++) {
+            int violated = -1;
+            double violation = 0;
+            for (int r = 0; r < rows.size(); r++) {
+                double slack = bounds.get(r) - dot(rows.get(r), point);
+                if (lengths.get(r) == 0) {
+                    // The constraint is the same everywhere on the hyperplane
+                    if (slack < 0) return false;
+                    continue;
+                }
+                double distance = slack / Math.sqrt(lengths.get(r));
+                if (distance < violation) {
+                    violation = distance;
+                    violated = r;
+                }
+            }
+            if (violated < 0) return true;
+            double[] projected = projected_rows.get(violated);
+            double step = (MARGIN - violation) / Math.sqrt(lengths.get(violated));
+            for (int j = 0; j < num_attributes; j++) {
+                point[j] -= step * projected[j];
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move a feasible point by steps of the hit-and-run walk
+     * @param random The random stream of the walk
+     * @param point A feasible point, moved in place
+     * @param steps The number of steps
+    */
+    public void walk(SplittableRandom random, double[] point, int steps) {
+        double[] direction = new double[num_attributes];
+        for (int step = 0; step < steps; step++) {
+            // A uniform direction on the hyperplane
+            double mean = 0;
+            for (int j = 0; j < num_attributes; j++) {
+                direction[j] = Solver.gaussian(random);
+                mean += direction[j] / num_attributes;
+            }
+            for (int j = 0; j < num_attributes; j++) {
+                direction[j] -= mean;
+            }
+
+            // The chord of the polytope along the direction, where the rounding of a point on the boundary counts as no slack
+            double lower = Double.NEGATIVE_INFINITY, upper = Double.POSITIVE_INFINITY;
+            for (int r = 0; r < rows.size(); r++) {
+                double rate = dot(rows.get(r), direction), slack = Math.max(bounds.get(r) - dot(rows.get(r), point), 0);
+                if (rate > 0) {
+                    upper = Math.min(upper, slack / rate);
+                } else if (rate < 0) {
+                    lower = Math.max(lower, slack / rate);
+                }
+            }
+            if (!(lower <= upper) || Double.isInfinite(lower) || Double.isInfinite(upper)) continue;
+            double t = lower + random.nextDouble() * (upper - lower);
+            for (int j = 0; j < num_attributes; j++) {
+                point[j] += t * direction[j];
+            }
+        }
+    }
+
+    /**
+     * @param row The coefficient of each weight
+     * @param point A point
+     * @return row * point
+    */
+    private double dot(double[] row, double[] point) {
+        double sum = 0;
+        for (int j = 0; j < num_attributes; j++) {
+            sum += row[j] * point[j];
+        }
+        return sum;
+    }
+}
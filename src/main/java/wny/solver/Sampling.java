@@ -2,20 +2,40 @@ package wny.solver;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Random;
-
-import org.javatuples.Pair;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
+import wny.entities.ColumnStore;
 import wny.entities.Tuple;
-import wny.util.RankingMeasurer;
+import wny.util.SobolSequence;
 
 /** 
  * A sampling method returning the best ranking among samples
+ * The samples are uniform on the simplex of weights, or on a cell clipped to it; on the whole simplex they are independent unless quasi_random is set,
+ * and then follow a randomly shifted Sobol sequence, whose low discrepancy covers the simplex more evenly, up to SobolSequence.MAX_DIMENSION weights
+ * In a cell or with constraints, each block of samples follows a hit-and-run walk inside the polytope of the weights
+ * in the cell and satisfying all constraints, so no sample is infeasible and none is rejected
+ * The samples are drawn in blocks, each block from its own SplittableRandom stream split from a seeded root, on one thread by default
+ * or on parallelism threads when it is set higher, and the same seed gives the same samples no matter how many threads are used.
  * @author Zixuan Chen
 */
 public class Sampling extends Solver {    
+    // The number of samples evaluated at once, so that each batch of tuples is scored for all of them while it is in the cache
+    private static final int BLOCK_SIZE = 16;
+    // The steps of the hit-and-run walk before the first sample of a block, per squared number of attributes
+    private static final int BURN_IN = 10;
+
+    // The number of threads evaluating the blocks of samples
+    public int parallelism = 1;
+    // Whether the samples follow a Sobol sequence instead of independent random streams
+    public boolean quasi_random = false;
+
     /** 
      * @param tuples All tuples of a relation
      * @param given_ranking The given ranking
@@ -25,85 +45,63 @@ public class Sampling extends Solver {
         super(tuples, given_ranking, precision);
     }
 
+    /** 
+     * @param data All tuples of a relation in column-major order
+     * @param given_ranking The given ranking
+     * @param precision A threshold for ties
+    */
+    public Sampling(ColumnStore data, int[] given_ranking, double precision) {
+        super(data, given_ranking, precision);
+    }
+
     /** 
      * Rank the tuples based on the weights
      * @param sample The sample weight used to rank the tuples
      * @return The ranking based on the sample
     */
     private int[] rank(int k, double[] sample) {
-        int[] sample_ranking = new int[num_tuples];
-        ArrayList<Pair<BigDecimal, Integer>> scores = new ArrayList<Pair<BigDecimal, Integer>>();
-        for (int i = 0; i < num_tuples; i++) {
-            BigDecimal score = new BigDecimal(0.0);
-            for (int j = 0; j < num_attributes; j++) {
-                BigDecimal value = new BigDecimal(tuples.get(i).values[j + 1]);
-                score = score.add(new BigDecimal(sample[j]).multiply(value));
-            }
-            // System.out.println(tuples.get(i).values[0] + '\n' + score);
-            Pair<BigDecimal, Integer> pair = new Pair<BigDecimal, Integer>(score, i);
-            scores.add(pair);
-        }
-
-        Collections.sort(scores, Comparator.reverseOrder());
-
-        int count = 0;
-        for (int i = 0; i < num_tuples; i++) {
-            if (scores.get(i).getValue1() < k) {
-                sample_ranking[scores.get(i).getValue1()] = i + 1;
-                BigDecimal score = scores.get(i).getValue0();
-                for (int j = i - 1; j >= 0; j--) {
-                    if (scores.get(j).getValue0().subtract(score).compareTo(new BigDecimal(precision)) == -1) {
-                        sample_ranking[scores.get(i).getValue1()]--;
-                    } else {
-                        break;
-                    }
-                }
-                count ++;
-                if (count == k) {
-                    break;
-                }
-            }
-        }
-        return sample_ranking;
+        return rank(k, exact(sample));
     }
 
     /** 
-     * @return One sample weight 
+     * Compute the error of a block of samples at once
+     * Most samples are much worse than the best one, so a sample is given up on as soon as its error exceeds the budget
+     * @param k k in top-k
+     * @param samples The sample weights
+     * @param budget The largest error of interest
+     * @return The error of the ranking based on each sample, exact up to the budget and otherwise only known to exceed it
+     * @see Solver#error_block
     */
-    private double[] sample() {
-        double[] sample = new double[num_attributes];
-        Random random = new Random();
-
-        double sum = 0;
-        for (int i = 0; i < num_attributes; i++) {
-            sample[i] = random.nextDouble();
-            sum += sample[i];
-        }
-        for (int i = 0; i < num_attributes; i++) {
-            sample[i] /= sum;
+    private int[] errors(int k, double[][] samples, int budget) {
+        BigDecimal[][] candidates = new BigDecimal[samples.length][];
+        for (int b = 0; b < samples.length; b++) {
+            candidates[b] = exact(samples[b]);
         }
-
-        return sample;
+        return error_block(k, candidates, budget);
     }
 
     /** 
-     * @param start_weights The center of the cell
-     * @param cell_size The side length of the cell
-     * @return One sample weight in a cell
+     * Map a point of the unit cube uniformly onto the simplex of weights by stick-breaking
+     * Weight i takes a Beta(1, m - 1 - i) share of what is left, so the weights are uniform on the simplex
+     * @param point A point in the unit cube of num_attributes - 1 dimensions
+     * @param sample One sample weight, filled in place
     */
-    private double[] sample(double[] start_weights, double cell_size) {
-        double[] sample = new double[num_attributes];
-        Random random = new Random();
-
-        double sum = 0;
-
+    private void simplex(double[] point, double[] sample) {
+        double remaining = 1;
         for (int i = 0; i < num_attributes - 1; i++) {
-            sample[i] = start_weights[i] + (random.nextDouble() - 0.5) * cell_size;
-            sum += sample[i];
+            sample[i] = remaining * (1 - Math.pow(point[i], 1.0 / (num_attributes - 1 - i)));
+            remaining -= sample[i];
         }
-        sample[num_attributes - 1] = 1 - sum;
+        sample[num_attributes - 1] = remaining;
+    }
 
-        return sample;
+    /** 
+     * @param seed The seed of the digital shift
+     * @return The Sobol sequence of the samples, null to draw them from the random streams
+    */
+    private SobolSequence sequence(long seed) {
+        if (!quasi_random || num_attributes - 1 > SobolSequence.MAX_DIMENSION) return null;
+        return new SobolSequence(num_attributes - 1, seed);
     }
 
     /** 
@@ -114,23 +112,25 @@ public class Sampling extends Solver {
      * @param k k in top-k. 0 means full dataset
     */
     public int[] sample_rankings(double[] start_weights, double cell_size, int n, int k) {
+        return sample_rankings(start_weights, cell_size, n, k, new SplittableRandom().nextLong());
+    }
+
+    /** 
+     * Count the samples in a cell by their errors, in parallel
+     * The same seed gives the same histogram whatever the number of threads
+     * All n samples are drawn inside the cell clipped to the simplex, so none of them is skipped
+     * @param start_weights The center of the cell
+     * @param cell_size The side length of the cell
+     * @param n The number of samples
+     * @param k k in top-k. 0 means full dataset
+     * @param seed The seed of the random streams
+     * @return The number of samples with each error from 1 to 100
+    */
+    public int[] sample_rankings(double[] start_weights, double cell_size, int n, int k, long seed) {
         k = (k == 0) ? num_tuples : k;
 
         error = 1000000;
-        int count = 0;
-        int[] error_count = new int[100];
-        for (int i = 0; i < 100; i++) {
-            error_count[i] = 0;
-        }
-        while (count++ < n) {
-            double[] sample = sample(start_weights, cell_size);
-            int[] sample_ranking = rank(k, sample);
-            RankingMeasurer rm = new RankingMeasurer(sample_ranking, given_ranking);
-            if (rm.error(k) <= 100) {
-                error_count[rm.error(k) - 1] += 1;
-            }
-        }
-        return error_count;
+        return run(k, start_weights, cell_size, sequence(seed), new Blocks(seed, n, Long.MAX_VALUE), new AtomicReference<Incumbent>(Incumbent.NONE), true);
     }
 
     /** 
@@ -139,26 +139,217 @@ public class Sampling extends Solver {
      * @param k k in top-k. 0 means full dataset
     */
     public void sample_rankings_timeout(int timeout, int k) {
+        sample_rankings_timeout(timeout, k, new SplittableRandom().nextLong());
+    }
+
+    /** 
+     * Use sampling techniques to get an approximately best ranking with a timeout limit, in parallel
+     * The same seed gives the same samples in the same order whatever the number of threads,
+     * and the best sample is the first one with the smallest error among the blocks evaluated before the deadline
+     * @param timeout The timeout parameter, in ms
+     * @param k k in top-k. 0 means full dataset
+     * @param seed The seed of the random streams
+    */
+    public void sample_rankings_timeout(int timeout, int k, long seed) {
         k = (k == 0) ? num_tuples : k;
 
         double[] weights_double = new double[num_attributes];
 
         error = 1000000;
-        long start = System.currentTimeMillis(), end = System.currentTimeMillis();
-        while (end - start < timeout) {
-            double[] sample = sample();
-            int[] sample_ranking = rank(k, sample);
-            RankingMeasurer rm = new RankingMeasurer(sample_ranking, given_ranking);
-            if (rm.error(k) < error) {
-                error = rm.error(k);
-                weights_double = sample;
-                ranking = sample_ranking;
-            }
-            end = System.currentTimeMillis();
+        AtomicReference<Incumbent> incumbent = new AtomicReference<Incumbent>(Incumbent.NONE);
+        run(k, null, 0, sequence(seed), new Blocks(seed, Long.MAX_VALUE, System.nanoTime() + timeout * 1000000L), incumbent, false);
+        // Only the positions are kept for the samples, so the ranking of the best sample is computed once at the end
+        Incumbent best = incumbent.get();
+        if (best.weights != null) {
+            error = best.error;
+            weights_double = best.weights;
+            ranking = rank(k, weights_double);
         }
         for (int i = 0; i < num_attributes; i++) {
             System.out.print(String.format("%.10f", weights_double[i]) + " ");
         }
         System.out.println();
     }
-}
\ No newline at end of file
+
+    /** 
+     * The best sample found so far, shared by all threads and replaced as a whole
+     * Samples are compared by their errors and then by their order in the streams, so the best one does not depend on the threads
+    */
+    private static final class Incumbent {
+        static final Incumbent NONE = new Incumbent(Integer.MAX_VALUE, Long.MAX_VALUE, null);
+
+        final int error;
+        final long index;
+        final double[] weights;
+
+        Incumbent(int error, long index, double[] weights) {
+            this.error = error;
+            this.index = index;
+            this.weights = weights;
+        }
+
+        /** 
+         * Replace the incumbent without locking if the sample is better
+         * @param incumbent The shared incumbent
+         * @param error The error of the sample
+         * @param index The index of the sample in the order of the streams
+         * @param sample The sample weight, copied if it is kept
+        */
+        static void offer(AtomicReference<Incumbent> incumbent, int error, long index, double[] sample) {
+            Incumbent current = incumbent.get();
+            while (error < current.error || (error == current.error && index < current.index)) {
+                if (incumbent.compareAndSet(current, new Incumbent(error, index, sample.clone()))) return;
+                current = incumbent.get();
+            }
+        }
+    }
+
+    /** 
+     * The blocks of samples handed out to the threads
+     * Block b draws from the b-th stream split from the seeded root, so the samples only depend on the seed
+    */
+    private static final class Blocks {
+        private final SplittableRandom root;
+        private final long num_samples;
+        private final long deadline;
+        private long next;
+        private boolean stopped;
+
+        /** 
+         * @param seed The seed of the random streams
+         * @param num_samples The number of samples, Long.MAX_VALUE for no limit
+         * @param deadline The value of System.nanoTime after which no block is handed out, Long.MAX_VALUE for no limit
+        */
+        Blocks(long seed, long num_samples, long deadline) {
+            root = new SplittableRandom(seed);
+            this.num_samples = num_samples;
+            this.deadline = deadline;
+        }
+
+        /** 
+         * @param random The stream of the block, set in place
+         * @return The index of the first sample of the next block, -1 when the samples run out or the deadline has passed
+        */
+        synchronized long claim(SplittableRandom[] random) {
+            if (stopped || next >= num_samples || (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0)) return -1;
+            random[0] = root.split();
+            long first = next;
+            next += BLOCK_SIZE;
+            return first;
+        }
+
+        /** 
+         * @param first The index of the first sample of a block
+         * @return The number of samples in the block
+        */
+        int size(long first) {
+            return (int) Math.min(BLOCK_SIZE, num_samples - first);
+        }
+
+        synchronized void stop() {
+            stopped = true;
+        }
+    }
+
+    /** 
+     * Evaluate blocks of samples on parallelism threads until the blocks run out
+     * Each thread reuses its buffers of samples and keeps its own histogram of the errors, and the histograms are merged at the end
+     * @param k k in top-k
+     * @param start_weights The center of the cell, null to sample all weights
+     * @param cell_size The side length of the cell
+     * @param sequence The Sobol sequence of the samples, indexed by their order, null to draw them from the streams of the blocks
+     * @param blocks The blocks of samples
+     * @param incumbent The best sample, updated by all threads
+     * @param count_errors Whether the errors are counted in the histogram, otherwise only the incumbent is kept
+     * @return The number of samples with each error from 1 to 100, none if the cell and the constraints leave no weights
+    */
+    private int[] run(int k, double[] start_weights, double cell_size, SobolSequence sequence, Blocks blocks, AtomicReference<Incumbent> incumbent, boolean count_errors) {
+        Polytope polytope = null;
+        double[] feasible = null;
+        if (start_weights != null || !constraints.isEmpty()) {
+            polytope = polytope();
+            if (start_weights != null) {
+                for (int i = 0; i < num_attributes; i++) {
+                    polytope.add_range(i, Math.max(0, start_weights[i] - cell_size / 2), Math.min(1, start_weights[i] + cell_size / 2));
+                }
+            }
+            feasible = polytope.interior_point();
+            if (feasible == null) return new int[100];
+        }
+        final Polytope walk_polytope = polytope;
+        final double[] start_point = feasible;
+
+        ColumnStore shared = data.thread_safe();
+        final Sampling worker_evaluator = (shared == data) ? this : new Sampling(shared, given_ranking, precision);
+        List<Callable<int[]>> workers = new ArrayList<Callable<int[]>>();
+        for (int t = 0; t < Math.max(parallelism, 1); t++) {
+            workers.add(() -> {
+                int[] histogram = new int[100];
+                double[][] buffer = new double[BLOCK_SIZE][num_attributes];
+                double[] point = new double[num_attributes - 1];
+                long[] indices = new long[BLOCK_SIZE];
+                SplittableRandom[] random = new SplittableRandom[1];
+                long first;
+                while ((first = blocks.claim(random)) >= 0) {
+                    int size = 0;
+                    if (walk_polytope != null) {
+                        // Each block walks from the same feasible point with its own stream, and keeps every num_attributes-th point
+                        double[] walker = start_point.clone();
+                        walk_polytope.walk(random[0], walker, BURN_IN * num_attributes * num_attributes);
+                        for (int b = 0; b < blocks.size(first); b++) {
+                            walk_polytope.walk(random[0], walker, num_attributes);
+                            System.arraycopy(walker, 0, buffer[size], 0, num_attributes);
+                            indices[size++] = first + b;
+                        }
+                    } else {
+                        for (int b = 0; b < blocks.size(first); b++) {
+                            if (sequence != null) {
+                                sequence.get(first + b, point);
+                            } else {
+                                for (int i = 0; i < point.length; i++) {
+                                    point[i] = random[0].nextDouble();
+                                }
+                            }
+                            simplex(point, buffer[size]);
+                            indices[size++] = first + b;
+                        }
+                    }
+                    double[][] samples = (size == BLOCK_SIZE) ? buffer : Arrays.copyOf(buffer, size);
+                    // Errors beyond the budget are neither counted nor better than the incumbent, whose error only decreases
+                    int budget = count_errors ? 100 : incumbent.get().error;
+                    int[] sample_errors = worker_evaluator.errors(k, samples, budget);
+                    for (int b = 0; b < samples.length; b++) {
+                        if (sample_errors[b] > budget) continue;
+                        if (count_errors && sample_errors[b] >= 1) {
+                            histogram[sample_errors[b] - 1] += 1;
+                        }
+                        Incumbent.offer(incumbent, sample_errors[b], indices[b], samples[b]);
+                    }
+                }
+                return histogram;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+        int[] error_count = new int[100];
+        try {
+            for (Future<int[]> future : pool.invokeAll(workers)) {
+                int[] histogram = future.get();
+                for (int i = 0; i < 100; i++) {
+                    error_count[i] += histogram[i];
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while sampling", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            blocks.stop();
+            pool.shutdown();
+        }
+        return error_count;
+    }
+}
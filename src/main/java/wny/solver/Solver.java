@@ -2,13 +2,15 @@ package wny.solver;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-
-import org.javatuples.Pair;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
+import wny.entities.ColumnStore;
 import wny.entities.Constraint;
+import wny.entities.SimplexCell;
 import wny.entities.Tuple;
+import wny.util.RankingMeasurer;
+import wny.util.ScoringKernel;
 
 /** 
  * A solver class which implements all pre-processing tasks
@@ -16,7 +18,14 @@ import wny.entities.Tuple;
  * @author Zixuan Chen
 */
 public class Solver {
-    protected ArrayList<Tuple> tuples;
+    // The positions of the top-k tuples are counted without sorting all tuples when k * TOP_K_RATIO is at most the number of tuples
+    protected static final int TOP_K_RATIO = 16;
+    // The number of tuples scored at once, small enough for the values of a batch to stay in the cache
+    protected static final int SCORE_BATCH_SIZE = 1024;
+    // The relative rounding error of double precision, up to a factor of 2
+    protected static final double EPSILON = Math.ulp(1.0);
+
+    protected ColumnStore data;
     protected int num_attributes;
     protected int num_tuples;
     protected double[] standard_deviation;
@@ -26,6 +35,9 @@ public class Solver {
     protected ArrayList<Constraint> constraints;
     protected double precision;
     protected int error;
+    protected KineticRanking tracker;
+    // Whether build_cell builds simplicial cells instead of hyper-rectangles
+    public boolean simplicial_cells = false;
 
     /** 
      * @param tuples All tuples of a relation
@@ -33,11 +45,21 @@ public class Solver {
      * @param precision A threshold for ties
     */
     public Solver (ArrayList<Tuple> tuples, int[] given_ranking, double precision) {
-        this.tuples = tuples;
+        this(new ColumnStore(tuples), given_ranking, precision);
+	}
+
+    /** 
+     * @param data All tuples of a relation in column-major order
+     * @param given_ranking The given ranking
+     * @param precision A threshold for ties
+    */
+    public Solver (ColumnStore data, int[] given_ranking, double precision) {
+        // The solvers read the tuples in any order, e.g. a top-k tuple against every other one, so computed values are kept
+        this.data = data.materialize();
         this.given_ranking = given_ranking;
         this.precision = precision;
-        num_attributes = tuples.get(0).values.length - 1;
-        num_tuples = tuples.size();
+        num_attributes = data.get_num_attributes();
+        num_tuples = data.get_size();
         compute_standard_deviation();
         weights = new BigDecimal[num_attributes];
         constraints = new ArrayList<Constraint>();
@@ -53,10 +75,15 @@ public class Solver {
 
     /** 
      * Constrain the solution space to a cell given the center of the cell
+     * The cell is a simplicial cell around the center when simplicial_cells is set
      * @param weight The center point of the cell
      * @param size The size of the cell
     */
     public void build_cell(double[] point, double size) {
+        if (simplicial_cells) {
+            build_cell(SimplexCell.around(point, size));
+            return;
+        }
         for (int i = 0; i < num_attributes; i++) {
             if (point[i] - size / 2 > 0) {
                 Constraint c_l = new Constraint(i, "raw_min", point[i] - size / 2);
@@ -69,6 +96,14 @@ public class Solver {
         }
     }
 
+    /** 
+     * Constrain the solution space to a simplicial cell
+     * @param cell The cell
+    */
+    public void build_cell(SimplexCell cell) {
+        constraints.addAll(cell.getConstraints());
+    }
+
     /** 
      * Constrain the solution space to a cell given a corner of the cell
      * @param weight One corner point of the cell
@@ -110,12 +145,12 @@ public class Solver {
         for (int i = 0; i < num_attributes; i++) {
             double sum = 0, average;
             for (int j = 0; j < num_tuples; j++) {
-                sum += Double.valueOf(tuples.get(j).values[i + 1]);
+                sum += data.get(j, i);
             }
             average = sum / num_tuples;
             sum = 0;
             for (int j = 0; j < num_tuples; j++) {
-                sum += (Double.valueOf(tuples.get(j).values[i + 1]) - average) * (Double.valueOf(tuples.get(j).values[i + 1]) - average);
+                sum += (data.get(j, i) - average) * (data.get(j, i) - average);
             }
             standard_deviation[i] = Math.sqrt(sum / num_tuples);
         }
@@ -142,34 +177,171 @@ public class Solver {
     /** 
      * Rank the tuples based on the weights
      * The data structure of weights is BigDecimal
+     * The values are the decimals of the strings they were parsed from
+     * While the ranking is tracked and the weights are inside its box, it is updated from the previous weights instead
      * @param k k in top-k
     */
     protected void rank(int k) {
-        ranking = new int[num_tuples];
-        ArrayList<Pair<BigDecimal, Integer>> scores = new ArrayList<Pair<BigDecimal, Integer>>();
-        for (int i = 0; i < num_tuples; i++) {
-            BigDecimal score = new BigDecimal(0.0);
-            for (int j = 0; j < num_attributes; j++) {
-                BigDecimal value = new BigDecimal(tuples.get(i).values[j + 1]);
-                score = score.add(weights[j].multiply(value));
+        if (tracker != null && tracker.get_k() == k && tracker.contains(weights)) {
+            tracker.update(weights);
+            ranking = tracker.getRanking();
+            return;
+        }
+        ranking = rank(k, weights);
+    }
+
+    /** 
+     * Track the ranking while the weights move slightly inside a box, so that rank(k) only processes the pairs which flip
+     * @param k k in top-k
+     * @param lower The lowest weight of each attribute
+     * @param upper The highest weight of each attribute
+     * @return The tracked ranking
+     * @see KineticRanking
+    */
+    public KineticRanking track(int k, double[] lower, double[] upper) {
+        tracker = new KineticRanking(this, k, lower, upper);
+        return tracker;
+    }
+
+    /** 
+     * Rank from scratch again
+    */
+    public void stop_tracking() {
+        tracker = null;
+    }
+
+    /** 
+     * Rank the top-k tuples based on exact weights, with the same result as sorting the exact BigDecimal scores
+     * The scores are computed in double precision together with a bound of their error from the exact scores,
+     * and the exact scores are only computed where the order or a tie cannot be decided from the bounds
+     * When k is small compared to the number of tuples, the positions of the top-k tuples are counted without sorting all tuples
+     * @param k k in top-k
+     * @param exact_weights The weights
+     * @return The ranking, with positions only for the first k tuples
+    */
+    protected int[] rank(int k, BigDecimal[] exact_weights) {
+        int num_top = Math.min(k, num_tuples);
+        if (num_top <= 0) return new int[num_tuples];
+
+        if ((long) num_top * TOP_K_RATIO > num_tuples) {
+            double[] scores = new double[num_tuples], errors = new double[num_tuples];
+            compute_scores(exact_weights, scores, errors);
+            return rank_sorted(k, exact_weights, scores, errors);
+        }
+        int[] new_ranking = new int[num_tuples];
+        System.arraycopy(rank_top(num_top, new BigDecimal[][] {exact_weights})[0], 0, new_ranking, 0, num_top);
+        return new_ranking;
+    }
+
+    /** 
+     * Rank the top-k tuples for a block of candidate weights at once, with the same result as rank(k, weights) for each candidate
+     * @param k k in top-k
+     * @param candidates The exact weights of each candidate
+     * @return The positions of the first k tuples for each candidate
+    */
+    protected int[][] rank_block(int k, BigDecimal[][] candidates) {
+        int num_top = Math.max(Math.min(k, num_tuples), 0);
+        if (num_top > 0 && (long) num_top * TOP_K_RATIO <= num_tuples) {
+            return rank_top(num_top, candidates);
+        }
+        int[][] positions = new int[candidates.length][];
+        for (int b = 0; b < candidates.length; b++) {
+            positions[b] = Arrays.copyOf(rank(k, candidates[b]), num_top);
+        }
+        return positions;
+    }
+
+    /** 
+     * Compute the error of the top-k ranking for a block of candidate weights, giving up on a candidate as soon as its error exceeds a budget
+     * The positions only grow while the tuples are counted, so the sum of how far each top-k tuple already is below its given position
+     * is a lower bound of the error, and the tuples are no longer scored for a candidate once this bound exceeds the budget
+     * When k is large compared to the number of tuples, the tuples are sorted for each candidate and every error is exact
+     * @param k k in top-k
+     * @param candidates The exact weights of each candidate
+     * @param budget The largest error of interest
+     * @return The error of each candidate, exact up to the budget and otherwise a lower bound above the budget
+    */
+    protected int[] error_block(int k, BigDecimal[][] candidates, int budget) {
+        int num_top = Math.max(Math.min(k, num_tuples), 0);
+        int[] errors = new int[candidates.length];
+        if (num_top > 0 && (long) num_top * TOP_K_RATIO <= num_tuples) {
+            TopCounter[] counters = count_top(num_top, candidates, budget);
+            for (int b = 0; b < candidates.length; b++) {
+                errors[b] = counters[b].aborted ? counters[b].bound : new RankingMeasurer(counters[b].positions(), given_ranking).error(num_top);
             }
-            // System.out.println(tuples.get(i).values[0] + '\n' + score);
-            Pair<BigDecimal, Integer> pair = new Pair<BigDecimal, Integer>(score, i);
-            scores.add(pair);
+            return errors;
+        }
+        for (int b = 0; b < candidates.length; b++) {
+            errors[b] = new RankingMeasurer(rank(k, candidates[b]), given_ranking).error(k);
         }
+        return errors;
+    }
 
-        Collections.sort(scores, Comparator.reverseOrder());
+    /** 
+     * Rank by sorting all tuples
+     * Tuples are sorted by their double scores and runs of tuples whose intervals of exact scores overlap are sorted again by their exact scores
+     * Ties in the exact scores are broken by the larger index first, as in the reverse order of pairs (score, index)
+     * @param k k in top-k
+     * @param exact_weights The weights
+     * @param scores The score of each tuple in double precision
+     * @param errors The bound of the error of each score
+     * @return The ranking, with positions only for the first k tuples
+    */
+    private int[] rank_sorted(int k, BigDecimal[] exact_weights, double[] scores, double[] errors) {
+        int[] new_ranking = new int[num_tuples];
+        Integer[] order = new Integer[num_tuples];
+        for (int i = 0; i < num_tuples; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> (scores[a] > scores[b]) ? -1 : ((scores[a] < scores[b]) ? 1 : b - a));
+
+        // Runs of tuples whose intervals of exact scores overlap are sorted again by their exact scores
+        BigDecimal[] exact = new BigDecimal[num_tuples];
+        double[] suffix_upper = new double[num_tuples + 1];
+        suffix_upper[num_tuples] = Double.NEGATIVE_INFINITY;
+        for (int t = num_tuples - 1; t >= 0; t--) {
+            suffix_upper[t] = Math.max(suffix_upper[t + 1], scores[order[t]] + errors[order[t]]);
+        }
+        int start = 0;
+        double lower = Double.POSITIVE_INFINITY;
+        for (int t = 0; t < num_tuples; t++) {
+            lower = Math.min(lower, scores[order[t]] - errors[order[t]]);
+            if (lower > suffix_upper[t + 1]) {
+                if (t > start) {
+                    for (int u = start; u <= t; u++) {
+                        exact_score(order[u], exact_weights, exact);
+                    }
+                    Arrays.sort(order, start, t + 1, (a, b) -> {
+                        int comparison = exact[b].compareTo(exact[a]);
+                        return comparison != 0 ? comparison : b - a;
+                    });
+                }
+                start = t + 1;
+                lower = Double.POSITIVE_INFINITY;
+            }
+        }
 
         BigDecimal p = new BigDecimal(precision);
 
         int count = 0;
         for (int i = 0; i < num_tuples; i++) {
-            if (scores.get(i).getValue1() < k) {
-                ranking[scores.get(i).getValue1()] = i + 1;
-                BigDecimal score = scores.get(i).getValue0();
+            int tuple = order[i];
+            if (tuple < k) {
+                new_ranking[tuple] = i + 1;
                 for (int j = i - 1; j >= 0; j--) {
-                    if (scores.get(j).getValue0().subtract(score).compareTo(p) == -1) {
-                        ranking[scores.get(i).getValue1()]--;
+                    int other = order[j];
+                    double difference = scores[other] - scores[tuple];
+                    double margin = errors[other] + errors[tuple] + Math.ulp(difference) + Math.ulp(precision);
+                    boolean tie;
+                    if (difference + margin < precision) {
+                        tie = true;
+                    } else if (difference - margin >= precision) {
+                        tie = false;
+                    } else {
+                        tie = exact_score(other, exact_weights, exact).subtract(exact_score(tuple, exact_weights, exact)).compareTo(p) == -1;
+                    }
+                    if (tie) {
+                        new_ranking[tuple]--;
                     } else {
                         break;
                     }
@@ -180,6 +352,463 @@ public class Solver {
                 }
             }
         }
+        return new_ranking;
+    }
+
+    /** 
+     * Count the position of each top-k tuple i without sorting all tuples, for a block of candidate weights
+     * The position is one plus the number of tuples counted for i:
+     * with a positive precision, the tuples j with S_j - S_i >= precision (the others before i are tied with i);
+     * otherwise, the tuples before i in the order of the exact scores, with ties broken by the larger index first
+     * The tuples are scored one batch at a time for all candidates while the batch stays in the cache,
+     * so the score matrix of the candidates and all tuples is never stored
+     * @param num_top The number of top tuples
+     * @param candidates The exact weights of each candidate
+     * @return The positions of the first num_top tuples for each candidate
+    */
+    private int[][] rank_top(int num_top, BigDecimal[][] candidates) {
+        TopCounter[] counters = count_top(num_top, candidates, Integer.MAX_VALUE);
+        int[][] positions = new int[candidates.length][];
+        for (int b = 0; b < candidates.length; b++) {
+            positions[b] = counters[b].positions();
+        }
+        return positions;
+    }
+
+    /** 
+     * Count the positions of the top-k tuples for a block of candidate weights
+     * A candidate is dropped once the lower bound of its error exceeds the budget, which is checked
+     * about every num_top tuples so that the check costs at most one step per tuple
+     * @param num_top The number of top tuples
+     * @param candidates The exact weights of each candidate
+     * @param budget The largest error of interest, Integer.MAX_VALUE to count all candidates to the end
+     * @return The counter of each candidate
+    */
+    private TopCounter[] count_top(int num_top, BigDecimal[][] candidates, int budget) {
+        int num_candidates = candidates.length, batch_size = Math.min(SCORE_BATCH_SIZE, num_tuples);
+        TopCounter[] counters = new TopCounter[num_candidates];
+        double[][] w = new double[num_candidates][];
+        for (int b = 0; b < num_candidates; b++) {
+            counters[b] = new TopCounter(candidates[b], num_top);
+            w[b] = counters[b].w;
+        }
+        double[][] buffer = new double[num_attributes][batch_size];
+        double[][] batch_scores = new double[num_candidates][batch_size];
+        double[] norms = new double[batch_size];
+
+        // The scores of the top-k tuples, which are the first tuples
+        for (int from = 0; from < num_top; from += batch_size) {
+            int to = Math.min(from + batch_size, num_top);
+            score_batch(from, to, w, buffer, batch_scores, norms);
+            for (int b = 0; b < num_candidates; b++) {
+                counters[b].set_top(from, to, batch_scores[b], norms);
+            }
+        }
+        for (int b = 0; b < num_candidates; b++) {
+            counters[b].sort_top();
+        }
+
+        // The candidates still counted, in the order of their weights in w
+        int[] active = new int[num_candidates];
+        for (int b = 0; b < num_candidates; b++) {
+            active[b] = b;
+        }
+        int num_active = num_candidates;
+        int check_interval = (budget == Integer.MAX_VALUE) ? Integer.MAX_VALUE : (num_top + batch_size - 1) / batch_size;
+        for (int from = 0, batch = 1; from < num_tuples && num_active > 0; from += batch_size, batch++) {
+            int to = Math.min(from + batch_size, num_tuples);
+            score_batch(from, to, w, buffer, batch_scores, norms);
+            for (int a = 0; a < num_active; a++) {
+                counters[active[a]].count(from, to, batch_scores[a], norms);
+            }
+            if (batch % check_interval == 0 && to < num_tuples) {
+                int kept = 0;
+                for (int a = 0; a < num_active; a++) {
+                    if (!counters[active[a]].exceeds(budget)) {
+                        active[kept++] = active[a];
+                    }
+                }
+                if (kept < num_active) {
+                    num_active = kept;
+                    w = new double[num_active][];
+                    for (int a = 0; a < num_active; a++) {
+                        w[a] = counters[active[a]].w;
+                    }
+                }
+            }
+        }
+        return counters;
+    }
+
+    /** 
+     * The counts of the positions of the top-k tuples for one candidate weight
+    */
+    private class TopCounter {
+        private BigDecimal[] exact_weights;
+        private double[] w;
+        private double coefficient;
+        private int num_top;
+        private double shift;
+        // The scores of the top-k tuples and the bounds of their errors
+        private double[] top_scores, top_errors;
+        private double max_top_score, max_top_error;
+        // The top-k tuples sorted by their thresholds S_i + shift, which tuple j passes when it is counted for i
+        private int[] top;
+        private double[] thresholds;
+        private BigDecimal[] exact_thresholds;
+        // The number of tuples passing exactly the lowest u thresholds for sure, and the other counts of each threshold
+        private int[] passed, counts;
+        // Whether the counting stopped because the lower bound of the error exceeded the budget, and the bound
+        private boolean aborted;
+        private int bound;
+
+        /** 
+         * @param exact_weights The weights
+         * @param num_top The number of top tuples
+        */
+        TopCounter(BigDecimal[] exact_weights, int num_top) {
+            this.exact_weights = exact_weights;
+            this.num_top = num_top;
+            w = new double[num_attributes];
+            coefficient = kernel_weights(exact_weights, w);
+            shift = Math.max(precision, 0);
+            top_scores = new double[num_top];
+            top_errors = new double[num_top];
+            passed = new int[num_top + 1];
+            counts = new int[num_top];
+            exact_thresholds = new BigDecimal[num_top];
+        }
+
+        /** 
+         * @param from The first top tuple of a batch
+         * @param to The tuple after the last one of the batch
+         * @param scores The scores of the batch
+         * @param norms The sum of the absolute values of each tuple of the batch
+        */
+        void set_top(int from, int to, double[] scores, double[] norms) {
+            for (int i = from; i < to; i++) {
+                top_scores[i] = scores[i - from];
+                top_errors[i] = score_error(coefficient, norms[i - from], top_scores[i]);
+                max_top_score = Math.max(max_top_score, Math.abs(top_scores[i]));
+                max_top_error = Math.max(max_top_error, top_errors[i]);
+            }
+        }
+
+        void sort_top() {
+            Integer[] order = new Integer[num_top];
+            for (int i = 0; i < num_top; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (x, y) -> Double.compare(top_scores[x], top_scores[y]));
+            top = new int[num_top];
+            thresholds = new double[num_top];
+            for (int u = 0; u < num_top; u++) {
+                top[u] = order[u];
+                thresholds[u] = top_scores[order[u]] + shift;
+            }
+        }
+
+        /** 
+         * Thresholds below s_j - margin are passed for sure, those within the margin of s_j are checked one by one
+         * @param from The first tuple of a batch
+         * @param to The tuple after the last one of the batch
+         * @param scores The scores of the batch
+         * @param norms The sum of the absolute values of each tuple of the batch
+        */
+        void count(int from, int to, double[] scores, double[] norms) {
+            double lowest = thresholds[0], highest = thresholds[num_top - 1];
+            for (int j = from; j < to; j++) {
+                double score = scores[j - from], error = score_error(coefficient, norms[j - from], score);
+                // 8 * EPSILON * x bounds 4 ulps of x
+                double margin = error + max_top_error + 8 * EPSILON * (Math.abs(score) + max_top_score + shift);
+                if (score + margin < lowest) {
+                    passed[0]++;
+                } else if (score - margin > highest) {
+                    passed[num_top]++;
+                } else {
+                    int lo = lower_bound(thresholds, score - margin);
+                    passed[lo]++;
+                    for (int u = lo; u < num_top && thresholds[u] <= score + margin; u++) {
+                        if (top[u] != j && is_counted(j, score, error, u)) {
+                            counts[u]++;
+                        }
+                    }
+                }
+            }
+        }
+
+        /** 
+         * @param j The index of a tuple
+         * @param score The score of the tuple in double precision
+         * @param error The bound of the error of the score
+         * @param u The index of a threshold
+         * @return Whether tuple j is counted in the position of the top-k tuple of the threshold
+        */
+        private boolean is_counted(int j, double score, double error, int u) {
+            int i = top[u];
+            double difference = score - top_scores[i] - shift;
+            double margin = error + top_errors[i] + 4 * EPSILON * (Math.abs(score) + Math.abs(top_scores[i]) + shift);
+            if (difference > margin) return true;
+            if (difference < -margin) return false;
+
+            // Tuples with the same values have the same exact score
+            if (data.getGroups().getGroup(i) == data.getGroups().getGroup(j)) {
+                return precision <= 0 && j > i;
+            }
+            if (exact_thresholds[u] == null) {
+                BigDecimal threshold = exact_score(i, exact_weights);
+                exact_thresholds[u] = precision > 0 ? threshold.add(new BigDecimal(precision)) : threshold;
+            }
+            int comparison = exact_score(j, exact_weights).compareTo(exact_thresholds[u]);
+            if (precision > 0) {
+                return comparison >= 0;
+            }
+            return comparison > 0 || (comparison == 0 && j > i);
+        }
+
+        /** 
+         * The positions counted so far are lower bounds of the final ones, so each top-k tuple adds at least how far it is below its given position
+         * @param budget The largest error of interest
+         * @return Whether the lower bound of the error exceeds the budget, in which case the counting is aborted
+        */
+        boolean exceeds(int budget) {
+            long error = 0;
+            int running = 0;
+            for (int u = num_top - 1; u >= 0; u--) {
+                running += passed[u + 1];
+                error += Math.max(0, 1 + counts[u] + running - given_ranking[top[u]]);
+                if (error > budget) {
+                    aborted = true;
+                    bound = (int) Math.min(error, Integer.MAX_VALUE);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** 
+         * @return The position of each top-k tuple
+        */
+        int[] positions() {
+            int[] positions = new int[num_top];
+            int running = 0;
+            for (int u = num_top - 1; u >= 0; u--) {
+                running += passed[u + 1];
+                positions[top[u]] = 1 + counts[u] + running;
+            }
+            return positions;
+        }
+    }
+
+    /** 
+     * @param thresholds Values in ascending order
+     * @param value A value
+     * @return The number of thresholds smaller than the value
+    */
+    private static int lower_bound(double[] thresholds, double value) {
+        int lo = 0, hi = thresholds.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (thresholds[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** 
+     * The weights in double precision for the scoring kernel, and the coefficient of the bound of the error of the scores
+     * The error comes from the rounding of the weights, the decimal of each value (within half an ulp of the double)
+     * and the rounding of the products and sums; the relative bound is kept well above their sum:
+     * error <= relative * sum |w_j * v_j| + 2 * sum ulp(w_j) * |v_j| <= coefficient * sum |v_j|
+     * @param exact_weights The weights
+     * @param w The weights in double precision
+     * @return The coefficient of the sum of the absolute values of a tuple in the bound
+    */
+    protected double kernel_weights(BigDecimal[] exact_weights, double[] w) {
+        double relative = (2 * num_attributes + 8) * EPSILON, coefficient = 0;
+        for (int j = 0; j < num_attributes; j++) {
+            w[j] = exact_weights[j].doubleValue();
+            coefficient = Math.max(coefficient, relative * Math.abs(w[j]) + 2 * Math.ulp(w[j]));
+        }
+        return coefficient;
+    }
+
+    /** 
+     * @param coefficient The coefficient of the weights
+     * @param norm The sum of the absolute values of a tuple
+     * @param score The score of the tuple in double precision
+     * @return The bound of the error of the score, including the rounding of the score itself
+    */
+    protected double score_error(double coefficient, double norm, double score) {
+        return coefficient * norm * (1 + 4 * EPSILON) + EPSILON * Math.abs(score) + num_attributes * Double.MIN_NORMAL;
+    }
+
+    /** 
+     * Score a batch of tuples for each candidate
+     * The sums of the absolute values of the tuples, for the bounds of the errors, are computed once for all candidates
+     * @param from The first tuple of the batch
+     * @param to The tuple after the last one of the batch
+     * @param w The weights of each candidate in double precision
+     * @param buffer A buffer of the values of the batch, for stores without heap arrays
+     * @param scores The scores for each candidate, starting from index 0
+     * @param norms The sum of the absolute values of each tuple, starting from index 0
+     * @see ScoringKernel
+    */
+    private void score_batch(int from, int to, double[][] w, double[][] buffer, double[][] scores, double[] norms) {
+        double[][] columns;
+        int offset;
+        if (data.getClass() == ColumnStore.class) {
+            columns = new double[num_attributes][];
+            for (int j = 0; j < num_attributes; j++) {
+                columns[j] = data.getColumn(j);
+            }
+            offset = data.get_offset() + from;
+        } else {
+            // Stores without heap arrays are copied first
+            for (int j = 0; j < num_attributes; j++) {
+                data.read(j, from, to, buffer[j]);
+            }
+            columns = buffer;
+            offset = 0;
+        }
+
+        ScoringKernel kernel = ScoringKernel.getInstance();
+        double[] ones = new double[num_attributes];
+        Arrays.fill(ones, 1);
+        kernel.score_abs(columns, offset, to - from, ones, norms);
+        for (int b = 0; b < w.length; b++) {
+            kernel.score(columns, offset, to - from, w[b], scores[b]);
+        }
+    }
+
+    /** 
+     * Compute the scores of all tuples in double precision together with a bound of their error from the exact scores
+     * @param exact_weights The weights
+     * @param scores The score of each tuple
+     * @param errors The bound of the error of each score
+    */
+    private void compute_scores(BigDecimal[] exact_weights, double[] scores, double[] errors) {
+        int batch_size = Math.min(SCORE_BATCH_SIZE, num_tuples);
+        double[][] w = new double[1][num_attributes];
+        double coefficient = kernel_weights(exact_weights, w[0]);
+        double[][] buffer = new double[num_attributes][batch_size];
+        double[][] batch_scores = new double[1][batch_size];
+        double[] norms = new double[batch_size];
+        for (int from = 0; from < num_tuples; from += batch_size) {
+            int to = Math.min(from + batch_size, num_tuples);
+            score_batch(from, to, w, buffer, batch_scores, norms);
+            for (int i = from; i < to; i++) {
+                scores[i] = batch_scores[0][i - from];
+                errors[i] = score_error(coefficient, norms[i - from], scores[i]);
+            }
+        }
+    }
+
+    /** 
+     * @param tuple The index of a tuple
+     * @param exact_weights The weights
+     * @param exact The exact scores computed so far, null for the others
+     * @return The exact score of the tuple
+    */
+    private BigDecimal exact_score(int tuple, BigDecimal[] exact_weights, BigDecimal[] exact) {
+        if (exact[tuple] == null) {
+            exact[tuple] = exact_score(tuple, exact_weights);
+        }
+        return exact[tuple];
+    }
+
+    /** 
+     * The value of each attribute is the decimal of the string it was parsed from, as with BigDecimal(String)
+     * @param tuple The index of a tuple
+     * @param exact_weights The weights
+     * @return The exact score of the tuple
+    */
+    protected BigDecimal exact_score(int tuple, BigDecimal[] exact_weights) {
+        BigDecimal score = new BigDecimal(0.0);
+        for (int j = 0; j < num_attributes; j++) {
+            BigDecimal value = data.get_decimal(tuple, j);
+            score = score.add(exact_weights[j].multiply(value));
+        }
+        return score;
+    }
+
+    /** 
+     * The feasible weights as a polytope: the simplex of weights and every constraint
+     * The constraints are the same as in the models of GurobiSolver:
+     * min and max bound the ratio of the standard weight of the attribute to the sum of the standard weights,
+     * raw_min and raw_max bound the weight itself, and multiple bounds a weighted sum of the weights
+     * @return The polytope
+    */
+    protected Polytope polytope() {
+        Polytope polytope = new Polytope(num_attributes);
+        for (Constraint c : constraints) {
+            double[] row = new double[num_attributes];
+            double bound = compile(c, row);
+            if (!Double.isNaN(bound)) polytope.add(row, bound);
+        }
+        return polytope;
+    }
+
+    /** 
+     * A constraint as row * w <= bound, in the same way as in the models of GurobiSolver
+     * @param c A constraint
+     * @param row The coefficient of each weight, filled in place
+     * @return The bound, NaN for a constraint of an unknown type
+    */
+    protected double compile(Constraint c, double[] row) {
+        double bound = 0;
+        if (c.type.equals("min") || c.type.equals("max")) {
+            // sd_a / value * W_a >= sum sd_i * W_i for min, <= for max
+            double sign = c.type.equals("min") ? 1 : -1;
+            for (int i = 0; i < num_attributes; i++) {
+                row[i] = sign * standard_deviation[i];
+            }
+            row[c.attribute] -= sign * standard_deviation[c.attribute] / c.value;
+        } else if (c.type.equals("raw_min")) {
+            row[c.attribute] = -1;
+            bound = -c.value;
+        } else if (c.type.equals("raw_max")) {
+            row[c.attribute] = 1;
+            bound = c.value;
+        } else if (c.type.equals("multiple")) {
+            for (int i = 0; i < num_attributes; i++) {
+                row[i] = c.weightsweights[i];
+            }
+            bound = c.value;
+        } else {
+            return Double.NaN;
+        }
+        return bound;
+    }
+
+    /** 
+     * Marsaglia's polar method, since SplittableRandom has no Gaussian variates before Java 17
+     * @param random The random stream
+     * @return A standard normal variate
+    */
+    static double gaussian(SplittableRandom random) {
+        double x, y, s;
+        do {
+            x = 2 * random.nextDouble() - 1;
+            y = 2 * random.nextDouble() - 1;
+            s = x * x + y * y;
+        } while (s >= 1 || s == 0);
+        return x * Math.sqrt(-2 * Math.log(s) / s);
+    }
+
+    /** 
+     * @param w Weights in double precision
+     * @return The exact values of the weights
+    */
+    protected BigDecimal[] exact(double[] w) {
+        BigDecimal[] exact_weights = new BigDecimal[num_attributes];
+        for (int j = 0; j < num_attributes; j++) {
+            exact_weights[j] = new BigDecimal(w[j]);
+        }
+        return exact_weights;
     }
 
     /** 
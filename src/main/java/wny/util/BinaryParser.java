@@ -0,0 +1,226 @@
+package wny.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import wny.entities.ColumnStore;
+import wny.entities.MappedColumnStore;
+import wny.entities.Relation;
+
+/**
+ * A class that writes a relation into a binary columnar file and loads it back by memory-mapping the file.
+ * File format:
+ * <br><br>
+ * [magic] [version] [number of tuples] [number of attributes] [offset of the columns] [offset of the ids]
+ * <br>
+ * [relation name] [id name] [attribute name 1] [attribute name 2] ...
+ * <br>
+ * [padding up to a multiple of 8 bytes]
+ * <br>
+ * [all values of attribute 1] [all values of attribute 2] ... as little-endian 8-byte doubles
+ * <br>
+ * [id 1] [id 2] ...
+ * <br><br>
+ * The header and the ids are written by DataOutputStream, the columns can be mapped without any parsing.
+*/
+public class BinaryParser
+{
+    private static final int MAGIC = 0x524B4842;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Write a relation into a binary file
+     * All attributes except the first one (the id) must be numeric
+     * @param relation The relation to write
+     * @param file_path Path of the output file
+     */
+    public static void write(Relation relation, String file_path) throws IOException
+    {
+        write(relation.get_relation_name(), relation.get_schema(), relation.getColumns(), file_path);
+    }
+
+    /**
+     * Write a column store into a binary file
+     * @param relation_name The name of the relation
+     * @param schema The names of all attributes, the first one being the id
+     * @param columns The values of all attributes except the id
+     * @param file_path Path of the output file
+     */
+    public static void write(String relation_name, String[] schema, ColumnStore columns, String file_path) throws IOException
+    {
+        int num_tuples = columns.get_size(), num_attributes = columns.get_num_attributes();
+
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        DataOutputStream names_out = new DataOutputStream(names);
+        names_out.writeUTF(relation_name);
+        for (int j = 0; j <= num_attributes; j++) {
+            names_out.writeUTF(schema[j]);
+        }
+        names_out.flush();
+
+        // magic, version, number of tuples, number of attributes, offset of the columns and offset of the ids
+        long header_size = 4 + 4 + 8 + 4 + 8 + 8 + names.size();
+        long data_offset = (header_size + 7) / 8 * 8;
+        long ids_offset = data_offset + 8L * num_tuples * num_attributes;
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file_path), BUFFER_SIZE));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(num_tuples);
+            out.writeInt(num_attributes);
+            out.writeLong(data_offset);
+            out.writeLong(ids_offset);
+            names.writeTo(out);
+            for (long i = header_size; i < data_offset; i++) {
+                out.writeByte(0);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int j = 0; j < num_attributes; j++) {
+                for (int i = 0; i < num_tuples; i++) {
+                    if (buffer.remaining() < 8) {
+                        out.write(buffer.array(), 0, buffer.position());
+                        buffer.clear();
+                    }
+                    buffer.putDouble(columns.get(i, j));
+                }
+            }
+            out.write(buffer.array(), 0, buffer.position());
+
+            for (int i = 0; i < num_tuples; i++) {
+                out.writeUTF(columns.getId(i));
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Convert the first relation of a csv file in the "Relation ... End" format into a binary file
+     * @param csv_path Path of the input csv file
+     * @param binary_path Path of the output binary file
+     * @see DatabaseParser
+     */
+    public static void convert(String csv_path, String binary_path) throws IOException
+    {
+        DatabaseParser db_parser = new DatabaseParser(null, true);
+        List<Relation> database = db_parser.parse_file(csv_path);
+        write(database.get(0), binary_path);
+    }
+
+    /**
+     * Load a csv file through its binary counterpart next to it (same path with the extension .bin)
+     * The binary file is created at the first call, and again whenever the csv file is newer
+     * @param csv_path Path of the input csv file
+     * @return The first relation of the csv file, backed by the mapped binary file
+     */
+    public static Relation load(String csv_path) throws IOException
+    {
+        String binary_path = (csv_path.endsWith(".csv") ? csv_path.substring(0, csv_path.length() - 4) : csv_path) + ".bin";
+        File csv = new File(csv_path), binary = new File(binary_path);
+        if (!binary.exists() || binary.lastModified() < csv.lastModified()) {
+            convert(csv_path, binary_path);
+        }
+        return parse_file(binary_path);
+    }
+
+    /**
+     * Memory-map a binary file as a relation
+     * The columns are views of the mapped file and no value is copied
+     * @param file_path Path of the binary file
+     * @return The relation in the file
+     */
+    public static Relation parse_file(String file_path) throws IOException
+    {
+        FileInputStream stream = new FileInputStream(file_path);
+        try
+        {
+            FileChannel channel = stream.getChannel();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file_path + " is not a binary relation file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of " + file_path);
+            }
+            long num_tuples = in.readLong();
+            int num_attributes = in.readInt();
+            long data_offset = in.readLong();
+            final long ids_offset = in.readLong();
+            String relation_name = in.readUTF();
+            String[] schema = new String[num_attributes + 1];
+            for (int j = 0; j <= num_attributes; j++) {
+                schema[j] = in.readUTF();
+            }
+            if (num_tuples > Integer.MAX_VALUE / 8) {
+                throw new IOException("Too many tuples in " + file_path + " to map a column");
+            }
+
+            DoubleBuffer[] buffers = new DoubleBuffer[num_attributes];
+            long column_size = 8 * num_tuples;
+            for (int j = 0; j < num_attributes; j++) {
+                buffers[j] = channel.map(FileChannel.MapMode.READ_ONLY, data_offset + j * column_size, column_size)
+                        .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            }
+
+            final int size = (int) num_tuples;
+            MappedColumnStore columns = new MappedColumnStore(buffers, () -> read_ids(file_path, ids_offset, size));
+            return new Relation(relation_name, schema, columns);
+        }
+        finally
+        {
+            // The mappings stay valid after the file is closed
+            stream.close();
+        }
+    }
+
+    /**
+     * @param file_path Path of the binary file
+     * @param ids_offset The offset of the ids in the file
+     * @param num_tuples Number of tuples
+     * @return The ids of all tuples
+     */
+    private static String[] read_ids(String file_path, long ids_offset, int num_tuples)
+    {
+        String[] ids = new String[num_tuples];
+        try
+        {
+            FileInputStream stream = new FileInputStream(file_path);
+            try
+            {
+                stream.getChannel().position(ids_offset);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+                for (int i = 0; i < num_tuples; i++) {
+                    ids[i] = in.readUTF();
+                }
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Failed to read the ids of " + file_path, e);
+        }
+        return ids;
+    }
+}
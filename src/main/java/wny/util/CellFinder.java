@@ -1,10 +1,19 @@
 package wny.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
 
 import org.javatuples.Pair;
 
 import wny.entities.Cell;
+import wny.entities.CellBounds;
+import wny.entities.ColumnStore;
+import wny.entities.Constraint;
+import wny.entities.SimplexCell;
 import wny.entities.Tuple;
 
 /** 
@@ -12,11 +21,27 @@ import wny.entities.Tuple;
  * @author Zixuan Chen
 */
 public class CellFinder {
-    private ArrayList<Tuple> tuples;
+    private ColumnStore data;
     private int num_attributes;
     private int num_tuples;
     private int[] given_ranking;
     private double gap;
+    public int parallelism = Runtime.getRuntime().availableProcessors();
+    // The number of the most promising cells whose bounds are tightened before one is chosen, 0 for none
+    public int num_tightened = 0;
+    // The number of tuples after the top-k ones sampled to estimate the bounds of the cells during a search, 0 for exact bounds
+    public int sample_size = 0;
+    // The number of standard errors on each side of an estimated count in the confidence intervals of the estimated bounds
+    public double confidence = 2;
+    // The number of the most promising cells by the estimated bounds which are bounded exactly before one is chosen
+    public int num_verified = 16;
+    // The seed of the sample
+    public long seed = 0;
+    // The memory of the signatures kept by the queued cells, in bytes, beyond which the children of the other cells are bounded from scratch
+    public long signature_memory = 128L << 20;
+    // The constraints on the weights, row * w <= bound
+    private ArrayList<double[]> constraint_rows;
+    private ArrayList<Double> constraint_bounds;
 
     /** 
      * @param tuples All tuples of a relation
@@ -24,47 +49,484 @@ public class CellFinder {
      * @param gap A gap for strict wins
     */
     public CellFinder (ArrayList<Tuple> tuples, int[] given_ranking, double gap) {
-        this.tuples = tuples;
+        this(new ColumnStore(tuples), given_ranking, gap);
+    }
+
+    /** 
+     * @param data All tuples of a relation in column-major order
+     * @param given_ranking The given ranking
+     * @param gap A gap for strict wins
+    */
+    public CellFinder (ColumnStore data, int[] given_ranking, double gap) {
+        this.data = data;
         this.given_ranking = given_ranking;
         this.gap = gap;
-        num_attributes = tuples.get(0).values.length - 1;
-        num_tuples = tuples.size();
+        num_attributes = data.get_num_attributes();
+        num_tuples = data.get_size();
+        constraint_rows = new ArrayList<double[]>();
+        constraint_bounds = new ArrayList<Double>();
+    }
+
+    /** 
+     * Restrict the weights by a constraint, which the tightened bounds take into account
+     * @param row The coefficient of each weight
+     * @param bound The bound of row * w
+    */
+    public void restrict(double[] row, double bound) {
+        constraint_rows.add(row.clone());
+        constraint_bounds.add(bound);
     }
 
     /** 
-     * Find the most promising cell
+     * A block of cells of the target size, given by a range of grid indices on each attribute
+     * Its bounds are those of the smallest cell containing the block, so they hold for every cell of the block
+    */
+    private static class Block {
+        private int[] from;
+        private int[] to;
+        private Cell cell;
+
+        Block(int[] from, int[] to, Cell cell) {
+            this.from = from;
+            this.to = to;
+            this.cell = cell;
+        }
+    }
+
+    /** 
+     * Find the most promising cell, which is the first cell of the grid with the smallest sum of bounds among those crossing the simplex
+     * The cells are searched best-first from the whole space: a block of cells is divided into halves on every attribute,
+     * and the blocks are kept in a priority queue by their lower bounds
+     * The bounds of a cell are at least as tight as those of any block containing it, so a block whose lower bound
+     * is more than half the smallest sum of bounds of a cell found so far contains no better cell and is not divided
+     * The children of a block are bounded on parallelism threads from the signature of the block, which is dropped once it is divided;
+     * only the queued blocks polled first keep their signatures, up to signature_memory, and the others are bounded from scratch
+     * When num_tightened is positive, that many cells with the smallest sums of bounds are kept and their bounds are tightened,
+     * and the first one with the smallest sum of tightened bounds is the most promising cell
+     * When sample_size is positive, the bounds are estimated from a sample of the tuples, so bounding a cell does not depend on
+     * the number of tuples: the blocks are ordered and pruned by the lowest lower bound in its confidence interval,
+     * and only the num_verified cells with the smallest sums of estimated bounds are bounded exactly at the end
      * @param k
      * @param cell_size
      * @return the center of the most promising cell
+     * @see #tighten
     */
     public double[] find(int k, double cell_size) {
+        return find_cells(k, cell_size, 1).get(0).getCenter();
+    }
+
+    /** 
+     * Find the most promising cells of the grid, searched as in find, which keeps the cells with the smallest sums of bounds
+     * until no block can hold a better one, so the cells are the best ones and, being cells of the grid, never overlap
+     * @param k
+     * @param cell_size
+     * @param num_cells The number of cells
+     * @return the most promising cells in order from the best, fewer if fewer cells cross the simplex,
+     * or the cell of the whole space when none does
+    */
+    public ArrayList<Cell> find_cells(int k, double cell_size, int num_cells) {
         // long start = System.currentTimeMillis();
 
         double[] center = new double[num_attributes];
         for (int i = 0; i < num_attributes; i++) center[i] = 0.5;
         Cell C = new Cell(center, 1.0);
 
-        double[][] centers = C.divide((int) (1 / cell_size));
+        int divisor = (int) (1 / cell_size);
+
+        int min = num_tuples * k * 2;
+        // The cells with the smallest sums of bounds, the worst first, and min is the largest of their sums once they are all found
+        PriorityQueue<Block> leaves = new PriorityQueue<Block>((a, b) -> compare(b, a));
+        int num_kept = num_kept(num_cells);
+
+        CellBounds bounds = bounds(k);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+        PriorityQueue<Block> queue = new PriorityQueue<Block>((a, b) -> compare(a.cell, b.cell));
+        int[] from = new int[num_attributes], to = new int[num_attributes];
+        Arrays.fill(to, divisor);
+        Block root = block(from, to, divisor, cell_size);
+        Signatures signatures = new Signatures(bounds, signature_memory);
+        if (root != null) {
+            bounds.bound(root.cell);
+            signatures.keep(root.cell);
+            queue.add(root);
+        }
+        try {
+            while (!queue.isEmpty()) {
+                Block b = queue.poll();
+                if (2L * optimistic(b.cell) > min) break;
+
+                boolean leaf = true;
+                for (int i = 0; i < num_attributes; i++) {
+                    if (b.to[i] - b.from[i] > 1) leaf = false;
+                }
+                if (leaf) {
+                    signatures.drop(b.cell);
+                    if (leaves.size() < num_kept || compare(b, leaves.peek()) < 0) {
+                        leaves.add(b);
+                        if (leaves.size() > num_kept) leaves.poll();
+                        if (leaves.size() == num_kept) min = leaves.peek().cell.upper_bound + leaves.peek().cell.lower_bound;
+                    }
+                    continue;
+                }
+
+                // Every child has the lower or the upper half of the range of each attribute
+                ArrayList<Block> children = new ArrayList<Block>();
+                ArrayList<Cell> cells = new ArrayList<Cell>();
+                for (int child = 0; child < (1 << num_attributes); child++) {
+                    int[] child_from = new int[num_attributes], child_to = new int[num_attributes];
+                    boolean duplicate = false;
+                    for (int i = 0; i < num_attributes; i++) {
+                        int middle = (b.from[i] + b.to[i] + 1) / 2;
+                        boolean upper = ((child >> i) & 1) == 1;
+                        if (upper && b.to[i] - b.from[i] == 1) duplicate = true;
+                        child_from[i] = upper ? middle : b.from[i];
+                        child_to[i] = (upper || b.to[i] - b.from[i] == 1) ? b.to[i] : middle;
+                    }
+                    if (duplicate) continue;
+                    Block c = block(child_from, child_to, divisor, cell_size);
+                    if (c == null) continue;
+                    children.add(c);
+                    cells.add(c.cell);
+                }
+                bounds.bound_all(pool, cells, b.cell);
+                signatures.drop(b.cell);
+                for (Block c : children) {
+                    if (2L * optimistic(c.cell) <= min) {
+                        signatures.keep(c.cell);
+                        queue.add(c);
+                    }
+                }
+            }
+            if (sample_size > 0) {
+                ArrayList<Cell> cells = new ArrayList<Cell>();
+                for (Block b : leaves) cells.add(b.cell);
+                bounds = verify(pool, k, cells);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        ArrayList<Block> kept = new ArrayList<Block>(leaves);
+        kept.sort(this::compare);
+        ArrayList<Cell> candidates = new ArrayList<Cell>();
+        for (Block b : kept.subList(0, Math.min(kept.size(), num_candidates(num_cells)))) candidates.add(b.cell);
+        ArrayList<Cell> best_cells = candidates.isEmpty() ? new ArrayList<Cell>(Arrays.asList(C)) : tighten(bounds, candidates, num_cells);
+        Pair<Integer, Integer> min_p = candidates.isEmpty() ? new Pair<Integer,Integer>(-1, -1) : new Pair<Integer,Integer>(best_cells.get(0).upper_bound, best_cells.get(0).lower_bound);
+        print(best_cells.get(0), min_p);
+        // System.out.println("Cell find time: " + (System.currentTimeMillis() - start) + "ms");
+        return best_cells;
+    }
+
+    /** 
+     * The queued cells which keep their signatures, those first in the order of the search, within a memory budget
+     * A cell beyond the budget loses its signature, and its children are bounded from scratch when it is divided
+    */
+    private static class Signatures {
+        private final long capacity;
+        // The queued cells, the worst first, some of which may have left the queue and lost their signatures already
+        private final PriorityQueue<Cell> cells;
+        // The number of cells which keep their signatures
+        private long num_kept;
+
+        /** 
+         * @param bounds The bounds of the search
+         * @param memory The memory of the signatures, in bytes
+        */
+        Signatures(CellBounds bounds, long memory) {
+            capacity = Math.max(memory / Math.max(bounds.signature_bytes(), 1), 1);
+            cells = new PriorityQueue<Cell>((a, b) -> compare(b, a));
+        }
+
+        /** 
+         * @param cell A queued cell with its signature
+        */
+        void keep(Cell cell) {
+            cells.add(cell);
+            num_kept++;
+            while (num_kept > capacity) {
+                Cell worst = cells.poll();
+                if (worst.signature != null) {
+                    worst.signature = null;
+                    num_kept--;
+                }
+            }
+        }
+
+        /** 
+         * @param cell A cell leaving the queue, whose signature is of no more use
+        */
+        void drop(Cell cell) {
+            if (cell.signature != null) {
+                cell.signature = null;
+                num_kept--;
+            }
+        }
+    }
+
+    /** 
+     * Find the most promising cell by bounding every cell of the grid which crosses the simplex, on parallel threads
+     * The cells are streamed from the grid without allocating it and bounded by the hyperplanes shared by all threads,
+     * and the result is the same as find without tightened bounds, which is faster when the lower bounds prune many cells
+     * @param k
+     * @param cell_size
+     * @return the center of the most promising cell
+     * @see Cell#simplex_cells
+    */
+    public double[] find_grid(int k, double cell_size) {
+        double[] center = new double[num_attributes];
+        for (int i = 0; i < num_attributes; i++) center[i] = 0.5;
+        Cell C = new Cell(center, 1.0);
+
+        CellBounds bounds = new CellBounds(data, given_ranking, k, gap);
+        int max = num_tuples * k * 2;
+        // The first cell in the order of the grid among those with the smallest sum of bounds
+        Optional<Cell> best = C.simplex_cells((int) (1 / cell_size), cell_size).parallel()
+            .map(c -> {
+                bounds.bound(c);
+                return c;
+            })
+            .filter(c -> c.upper_bound + c.lower_bound < max)
+            .reduce((a, b) -> (b.upper_bound + b.lower_bound < a.upper_bound + a.lower_bound) ? b : a);
+
+        Cell best_cell = best.orElse(C);
+        Pair<Integer, Integer> min_p = best.isPresent() ? new Pair<Integer,Integer>(best_cell.upper_bound, best_cell.lower_bound) : new Pair<Integer,Integer>(-1, -1);
+        print(best_cell, min_p);
+        return best_cell.getCenter();
+    }
+
+    /** 
+     * Find the most promising simplicial cell, searched best-first as in find
+     * The simplex of weights is divided by the edgewise subdivision into 2 ^ (num_attributes - 1) halves of its edges,
+     * until the cells are not larger than the target size, so the cells cover exactly the simplex of weights
+     * The children of a cell are bounded on parallelism threads, and the bounds of the most promising cells are tightened as in find,
+     * and they are estimated from a sample as in find when sample_size is positive
+     * @param k
+     * @param cell_size The largest size of the cells, whose size is a power of 1 / 2
+     * @return the most promising cell
+     * @see SimplexCell#subdivide
+    */
+    public SimplexCell find_simplex(int k, double cell_size) {
+        return find_simplices(k, cell_size, 1).get(0);
+    }
+
+    /** 
+     * Find the most promising simplicial cells, searched as in find_simplex, which never overlap since they subdivide the simplex of weights
+     * @param k
+     * @param cell_size The largest size of the cells, whose size is a power of 1 / 2
+     * @param num_cells The number of cells
+     * @return the most promising cells in order from the best, fewer if there are fewer cells, or the simplex of weights when none is found
+    */
+    public ArrayList<SimplexCell> find_simplices(int k, double cell_size, int num_cells) {
+        SimplexCell C = SimplexCell.root(num_attributes);
 
         int min = num_tuples * k * 2;
-        Pair<Integer, Integer> min_p = new Pair<Integer,Integer>(-1, -1);
-        Cell best_cell = C;
-        for (int i = 0; i < centers.length; i++) {
-            double sum_upper = 0, sum_lower = 0;
-            for (int j = 0; j < num_attributes; j++) {
-                sum_upper += centers[i][j] + cell_size / 2;
-                sum_lower += centers[i][j] - cell_size / 2;
+        // The cells with the smallest sums of bounds, the worst first, and min is the largest of their sums once they are all found
+        PriorityQueue<SimplexCell> leaves = new PriorityQueue<SimplexCell>((a, b) -> Integer.compare(sum(b), sum(a)));
+        int num_kept = num_kept(num_cells);
+
+        CellBounds bounds = bounds(k);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+        PriorityQueue<SimplexCell> queue = new PriorityQueue<SimplexCell>(CellFinder::compare);
+        Signatures signatures = new Signatures(bounds, signature_memory);
+        bounds.bound(C);
+        signatures.keep(C);
+        queue.add(C);
+        try {
+            while (!queue.isEmpty()) {
+                SimplexCell c = queue.poll();
+                if (2L * optimistic(c) > min) break;
+
+                if (c.size() <= cell_size) {
+                    signatures.drop(c);
+                    if (leaves.size() < num_kept || sum(c) < sum(leaves.peek())) {
+                        leaves.add(c);
+                        if (leaves.size() > num_kept) leaves.poll();
+                        if (leaves.size() == num_kept) min = sum(leaves.peek());
+                    }
+                    continue;
+                }
+
+                List<SimplexCell> children = Arrays.asList(c.subdivide(2));
+                bounds.bound_all(pool, children, c);
+                signatures.drop(c);
+                for (SimplexCell child : children) {
+                    if (2L * optimistic(child) <= min) {
+                        signatures.keep(child);
+                        queue.add(child);
+                    }
+                }
+            }
+            if (sample_size > 0) bounds = verify(pool, k, new ArrayList<SimplexCell>(leaves));
+        } finally {
+            pool.shutdown();
+        }
+
+        ArrayList<SimplexCell> candidates = new ArrayList<SimplexCell>(leaves);
+        candidates.sort((a, b) -> Integer.compare(sum(a), sum(b)));
+        candidates.subList(Math.min(candidates.size(), num_candidates(num_cells)), candidates.size()).clear();
+        ArrayList<SimplexCell> best_cells = candidates.isEmpty() ? new ArrayList<SimplexCell>(Arrays.asList(C)) : tighten(bounds, candidates, num_cells);
+        Pair<Integer, Integer> min_p = candidates.isEmpty() ? new Pair<Integer,Integer>(-1, -1) : new Pair<Integer,Integer>(best_cells.get(0).upper_bound, best_cells.get(0).lower_bound);
+        print(best_cells.get(0), min_p);
+        return best_cells;
+    }
+
+    /** 
+     * @param num_cells The number of cells to find
+     * @return The number of cells kept for tightening and for the result, or for bounding exactly when the bounds are estimated
+    */
+    private int num_kept(int num_cells) {
+        return (sample_size > 0) ? Math.max(num_candidates(num_cells), num_verified) : num_candidates(num_cells);
+    }
+
+    /** 
+     * @param num_cells The number of cells to find
+     * @return The number of cells tightened and ranked for the result, at least the best one
+    */
+    private int num_candidates(int num_cells) {
+        return Math.max(Math.max(num_tightened, num_cells), 1);
+    }
+
+    /** 
+     * @param k
+     * @return The bounds of the cells during a search, estimated from a sample when sample_size is positive
+    */
+    private CellBounds bounds(int k) {
+        if (sample_size > 0) return new CellBounds(data, given_ranking, k, gap, sample_size, confidence, seed);
+        return new CellBounds(data, given_ranking, k, gap);
+    }
+
+    /** 
+     * Bound the most promising cells of a search exactly once their bounds have been estimated from a sample,
+     * which reads every tuple once for the hyperplanes and once per cell
+     * @param pool The threads
+     * @param k
+     * @param cells The cells, whose estimated bounds are replaced
+     * @return The exact bounds, with which the cells are tightened
+    */
+    private CellBounds verify(ForkJoinPool pool, int k, List<? extends Cell> cells) {
+        CellBounds bounds = new CellBounds(data, given_ranking, k, gap);
+        bounds.bound_all(pool, cells, null);
+        for (Cell cell : cells) cell.signature = null;
+        return bounds;
+    }
+
+    /** 
+     * @param cell A bounded cell
+     * @return The lower bound of the cell, or the lowest one in its confidence interval when it is estimated
+    */
+    private static int optimistic(Cell cell) {
+        return (cell.lower_interval == null) ? cell.lower_bound : cell.lower_interval.getValue0();
+    }
+
+    /** 
+     * Cells are searched in the order of Cell.compareTo, by the lowest lower bound in the confidence interval first when it is estimated
+     * @param a A bounded cell
+     * @param b Another bounded cell
+     * @return A negative number if cell a comes first, a positive number if cell b does
+    */
+    private static int compare(Cell a, Cell b) {
+        if (optimistic(a) != optimistic(b)) return Integer.compare(optimistic(a), optimistic(b));
+        return a.compareTo(b);
+    }
+
+    /** 
+     * @param cell A bounded cell
+     * @return The sum of the bounds of the cell
+    */
+    private static int sum(Cell cell) {
+        return cell.upper_bound + cell.lower_bound;
+    }
+
+    /** 
+     * Blocks of cells of the grid are ordered by the sums of the bounds, then by the order of the grid
+     * @param a A block of one cell
+     * @param b Another block of one cell
+     * @return A negative number if block a comes first, a positive number if block b does
+    */
+    private int compare(Block a, Block b) {
+        if (sum(a.cell) != sum(b.cell)) return Integer.compare(sum(a.cell), sum(b.cell));
+        return before(a.from, b.from) ? -1 : (before(b.from, a.from) ? 1 : 0);
+    }
+
+    /** 
+     * The second tier of bounds: a hyperplane crossing a cell may not cross the part of the cell where the weights are feasible,
+     * i.e. in the simplex of weights and the constraints, so each hyperplane crossing a candidate is checked again by minimizing
+     * and maximizing its value over that part by a linear program, and the bounds only get tighter
+     * A candidate with no feasible weights is dropped
+     * @param bounds The bounds of the search
+     * @param candidates The candidate cells, in order from the best by their first bounds
+     * @param num_cells The number of cells to return
+     * @return The first candidates by the sums of tightened bounds, ties in the order of the candidates,
+     * or the first candidates when num_tightened is 0 or none is feasible
+     * @see LinearProgram
+    */
+    private <T extends Cell> ArrayList<T> tighten(CellBounds bounds, List<T> candidates, int num_cells) {
+        if (num_tightened == 0) return new ArrayList<T>(candidates.subList(0, Math.min(candidates.size(), Math.max(num_cells, 1))));
+        ArrayList<T> ranked = new ArrayList<T>();
+        for (T cell : candidates) {
+            LinearProgram region = region(cell);
+            if (!region.feasible()) continue;
+            bounds.bound(cell, inequality -> {
+                if (region.minimize(inequality) >= 0) return 1;
+                double[] negated = new double[num_attributes];
+                for (int j = 0; j < num_attributes; j++) {
+                    negated[j] = -inequality[j];
+                }
+                return (region.minimize(negated) > 0) ? -1 : 0;
+            });
+            ranked.add(cell);
+        }
+        if (ranked.isEmpty()) ranked.addAll(candidates);
+        ranked.sort((a, b) -> Integer.compare(sum(a), sum(b)));
+        return new ArrayList<T>(ranked.subList(0, Math.min(ranked.size(), Math.max(num_cells, 1))));
+    }
+
+    /** 
+     * @param cell A cell
+     * @return The linear program of the weights in the cell, the simplex of weights and the constraints
+    */
+    private LinearProgram region(Cell cell) {
+        double[] lower = new double[num_attributes], upper = new double[num_attributes];
+        if (cell instanceof SimplexCell) {
+            Arrays.fill(lower, 1);
+            for (double[] vertex : ((SimplexCell) cell).getVertices()) {
+                for (int i = 0; i < num_attributes; i++) {
+                    lower[i] = Math.min(lower[i], vertex[i]);
+                    upper[i] = Math.max(upper[i], vertex[i]);
+                }
             }
-            if (sum_upper < 1 || sum_lower > 1) continue;
-            Cell c = new Cell(centers[i], cell_size);
-            Pair<Integer, Integer> p = c.getBounds(tuples, given_ranking, k, gap);
-            if (p.getValue0() + p.getValue1() < min) {
-                min = p.getValue0() + p.getValue1();
-                min_p = p;
-                best_cell = c;
+        } else {
+            for (int i = 0; i < num_attributes; i++) {
+                lower[i] = cell.getCenter()[i] - cell.size() / 2;
+                upper[i] = cell.getCenter()[i] + cell.size() / 2;
             }
         }
+        for (int i = 0; i < num_attributes; i++) {
+            lower[i] = Math.max(lower[i], 0);
+            upper[i] = Math.min(upper[i], 1);
+        }
 
+        LinearProgram region = new LinearProgram(lower, upper);
+        if (cell instanceof SimplexCell) {
+            for (Constraint c : ((SimplexCell) cell).getConstraints()) {
+                double[] row = new double[num_attributes];
+                for (int i = 0; i < num_attributes; i++) {
+                    row[i] = c.weightsweights[i];
+                }
+                region.add(row, c.value);
+            }
+        }
+        for (int r = 0; r < constraint_rows.size(); r++) {
+            region.add(constraint_rows.get(r), constraint_bounds.get(r));
+        }
+        return region;
+    }
+
+    /** 
+     * @param best_cell The most promising cell
+     * @param min_p The upper bound and the lower bound of the cell
+    */
+    private void print(Cell best_cell, Pair<Integer, Integer> min_p) {
         System.out.print("Cell center: ");
         for (int i = 0; i < num_attributes; i++) {
             System.out.print(best_cell.getCenter()[i] + " ");
@@ -72,7 +534,53 @@ public class CellFinder {
         System.out.print("Upper bound: " + min_p.getValue0() + " ");
         System.out.print("Lower bound: " + min_p.getValue1() + " ");
         System.out.println();
-        // System.out.println("Cell find time: " + (System.currentTimeMillis() - start) + "ms");
-        return best_cell.getCenter();
+    }
+
+    /** 
+     * The cells of the grid have their centers at (2 * index + 1) / divisor / 2 and the target size
+     * @param from The first grid index of each attribute
+     * @param to The grid index after the last one of each attribute
+     * @param divisor The number of cells of the grid on each attribute
+     * @param cell_size The target size of the cells
+     * @return The block with the smallest cell containing it, null if none of its cells crosses the simplex
+    */
+    private Block block(int[] from, int[] to, int divisor, double cell_size) {
+        double[] center = new double[num_attributes];
+        double size = cell_size, sum_upper = 0, sum_lower = 0;
+        for (int i = 0; i < num_attributes; i++) {
+            double lowest = (2 * from[i] + 1) / (double) divisor / 2 - cell_size / 2;
+            double highest = (2 * (to[i] - 1) + 1) / (double) divisor / 2 + cell_size / 2;
+            sum_lower += lowest;
+            sum_upper += highest;
+            center[i] = (lowest + highest) / 2;
+            size = Math.max(size, highest - lowest);
+        }
+        if (sum_upper < 1 || sum_lower > 1) return null;
+        // A single cell of the grid has the same center and size as in the grid
+        boolean leaf = true;
+        for (int i = 0; i < num_attributes; i++) {
+            if (to[i] - from[i] > 1) leaf = false;
+        }
+        if (leaf) {
+            for (int i = 0; i < num_attributes; i++) {
+                center[i] = (2 * from[i] + 1) / (double) divisor / 2;
+            }
+            size = cell_size;
+        }
+        return new Block(from, to, new Cell(center, size));
+    }
+
+    /** 
+     * The cells of the grid are in the order of Cell.divide, where the first attribute varies fastest
+     * @param index The grid indices of a cell
+     * @param other The grid indices of another cell, null for none
+     * @return Whether the cell comes before the other one in the grid
+    */
+    private static boolean before(int[] index, int[] other) {
+        if (other == null) return true;
+        for (int i = index.length - 1; i >= 0; i--) {
+            if (index[i] != other[i]) return index[i] < other[i];
+        }
+        return false;
     }
 }
@@ -6,9 +6,19 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import wny.entities.ColumnStore;
 import wny.entities.Relation;
 import wny.entities.Tuple;
 
@@ -31,6 +41,9 @@ import wny.entities.Tuple;
  * Relation [RelationName']
  * <br>
  * ...
+ * <br><br>
+ * In the parallel mode, a file is split into byte ranges aligned on line boundaries which are parsed on a fork-join pool
+ * directly into primitive columns, so all attributes except the first one (the id) must be numeric.
  * @author Nikolaos Tziavelis
  * This code is from the any-k repository, https://github.com/northeastern-datalab/anyk-code.
 */
@@ -39,14 +52,56 @@ public class DatabaseParser
     /** 
      * The index of the weight attribute.
      * By default (when null), it is the last attribute
+     * Otherwise the weight attribute is moved to the end of the schema, where the rankings are read from
      */
     Integer weight_attribute_index = null;
 
+    /** 
+     * Whether files are parsed in parallel chunks
+     */
+    boolean parallel = false;
+
+    /** 
+     * The number of threads used in the parallel mode
+     */
+    int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /** 
+     * The size in bytes of one chunk parsed by a thread in the parallel mode
+     */
+    private static final int CHUNK_SIZE = 1 << 22;
+
+    /** 
+     * The charset of the strings in the parallel mode, the same one a FileReader uses
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
     public DatabaseParser(Integer weight_attribute_index)
     {
         this.weight_attribute_index = weight_attribute_index;
     }
 
+    public DatabaseParser(Integer weight_attribute_index, boolean parallel)
+    {
+        this.weight_attribute_index = weight_attribute_index;
+        this.parallel = parallel;
+    }
+
+    /** 
+     * @param num_attributes The number of attributes in the input file
+     * @return The position in the input of each attribute to store, with the weight attribute at the end
+     */
+    private int[] attribute_order(int num_attributes)
+    {
+        int[] order = new int[num_attributes];
+        boolean move = weight_attribute_index != null && weight_attribute_index > 0 && weight_attribute_index < num_attributes;
+        int count = 0;
+        for (int i = 0; i < num_attributes; i++)
+            if (!move || i != weight_attribute_index) order[count++] = i;
+        if (move) order[count] = weight_attribute_index;
+        return order;
+    }
+
     /** 
      * Given the path of an input file as a string, returns a database as a list of relations.
      * @param file_path Path of input file.
@@ -77,6 +132,18 @@ public class DatabaseParser
     public List<Relation> parse_file(File f)
     {
         List<Relation> database = null;
+        if (parallel)
+        {
+            try 
+            {
+                database = parse_file_parallel(f);
+            }
+            catch (IOException e) 
+            {
+                e.printStackTrace();
+            }
+            return database;
+        }
         FileReader fr = null;
         BufferedReader br = null;
         try 
@@ -120,6 +187,7 @@ public class DatabaseParser
 
         Relation curr_relation = null;
         int curr_attr_no = -1;
+        int[] order = null;
         Tuple t;
         String relation_id;
         String[] tuple_vals;
@@ -138,7 +206,11 @@ public class DatabaseParser
                     sCurrentLine = br.readLine();
                     tokens = sCurrentLine.split(",+"); // splits by whitespace
                     curr_attr_no = tokens.length;
-                    curr_relation = new Relation(relation_id, tokens);
+                    order = attribute_order(curr_attr_no);
+                    String[] schema = new String[curr_attr_no];
+                    for (int i = 0; i < curr_attr_no; i++)
+                        schema[i] = tokens[order[i]];
+                    curr_relation = new Relation(relation_id, schema);
                 }
                 else if (sCurrentLine.startsWith("End"))
                 {
@@ -152,7 +224,7 @@ public class DatabaseParser
                     tokens = sCurrentLine.split(",+"); // splits by comma for csv
                     tuple_vals = new String[curr_attr_no];
                     for (int i = 0; i < curr_attr_no; i++)
-                        tuple_vals[i] = tokens[i];
+                        tuple_vals[i] = tokens[order[i]];
                     t = new Tuple(tuple_vals);
                     curr_relation.insert(t);
                 }           
@@ -165,4 +237,464 @@ public class DatabaseParser
 
         return database;
     }
-}
\ No newline at end of file
+
+    /** 
+     * The bytes of a file range holding whole lines
+     * The lines starting in [begin, end) belong to the range, and the last of them is complete in the bytes
+     */
+    private static class Chunk
+    {
+        long offset;
+        byte[] bytes;
+        int begin;
+        int end;
+    }
+
+    /** 
+     * The parsed tuples of one chunk
+     */
+    private static class ChunkResult
+    {
+        String[] ids;
+        double[][] columns;
+        // The decimals of the values whose doubles do not give them back, null until there is one
+        BigDecimal[][] decimals;
+        int size;
+    }
+
+    /** 
+     * Given a file object, returns a database as a list of relations, parsing the file in parallel.
+     * First the framing lines (Relation and End) are located in parallel,
+     * then the tuples of each relation are parsed in chunks into primitive columns and merged in the order of the file.
+     * @param f An input file.
+     * @return A database whose relations are backed by column stores.
+     */
+    public List<Relation> parse_file_parallel(File f) throws IOException
+    {
+        List<Relation> database = new ArrayList<Relation>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try
+        {
+            long size = channel.size();
+
+            // Locate all lines starting with Relation or End, in the order of the file
+            List<Callable<List<Long>>> frame_tasks = new ArrayList<Callable<List<Long>>>();
+            for (long start = 0; start < size; start += CHUNK_SIZE)
+            {
+                final long from = start, to = Math.min(start + CHUNK_SIZE, size);
+                frame_tasks.add(() -> find_frames(read_chunk(channel, from, to, size)));
+            }
+            List<Long> frames = new ArrayList<Long>();
+            for (List<Long> positions : join(pool.invokeAll(frame_tasks)))
+                frames.addAll(positions);
+
+            // Follow the framing to find the schema and the range of tuples of each relation
+            String relation_id = null;
+            String[] tokens = null;
+            long data_start = -1;
+            for (long position : frames)
+            {
+                if (position < data_start) continue;
+                byte[] line = read_line(channel, position, size);
+                if (starts_with(line, 0, "Relation"))
+                {
+                    relation_id = to_string(line).split("\\s+")[1];
+                    long schema_start = position + line.length + 1;
+                    byte[] schema_line = read_line(channel, schema_start, size);
+                    tokens = to_string(schema_line).split(",+");
+                    data_start = schema_start + schema_line.length + 1;
+                }
+                else if (relation_id != null)
+                {
+                    database.add(parse_relation(pool, channel, relation_id, tokens, data_start, position));
+                    relation_id = null;
+                }
+            }
+        }
+        finally
+        {
+            channel.close();
+            pool.shutdown();
+        }
+        return database;
+    }
+
+    /** 
+     * Parse the tuples of one relation in chunks and merge them in order
+     * @param start The position of the first tuple in the file
+     * @param end The position of the End line of the relation in the file
+     * @return The relation backed by a column store
+     */
+    private Relation parse_relation(ForkJoinPool pool, FileChannel channel, String relation_id, String[] tokens,
+                                    long start, long end) throws IOException
+    {
+        int curr_attr_no = tokens.length;
+        int[] order = attribute_order(curr_attr_no);
+        String[] schema = new String[curr_attr_no];
+        for (int i = 0; i < curr_attr_no; i++)
+            schema[i] = tokens[order[i]];
+
+        List<Callable<ChunkResult>> tasks = new ArrayList<Callable<ChunkResult>>();
+        for (long from = start; from < end; from += CHUNK_SIZE)
+        {
+            final long chunk_start = from, chunk_end = Math.min(from + CHUNK_SIZE, end);
+            tasks.add(() -> parse_chunk(read_chunk(channel, chunk_start, chunk_end, end), order));
+        }
+        List<ChunkResult> results = join(pool.invokeAll(tasks));
+
+        int num_tuples = 0;
+        for (ChunkResult result : results)
+            num_tuples += result.size;
+        String[] ids = new String[num_tuples];
+        double[][] columns = new double[curr_attr_no - 1][num_tuples];
+        BigDecimal[][] decimals = null;
+        int position = 0;
+        for (ChunkResult result : results)
+        {
+            System.arraycopy(result.ids, 0, ids, position, result.size);
+            for (int j = 0; j < curr_attr_no - 1; j++)
+                System.arraycopy(result.columns[j], 0, columns[j], position, result.size);
+            if (result.decimals != null)
+            {
+                if (decimals == null)
+                    decimals = new BigDecimal[curr_attr_no - 1][];
+                for (int j = 0; j < curr_attr_no - 1; j++)
+                {
+                    if (result.decimals[j] == null) continue;
+                    if (decimals[j] == null)
+                        decimals[j] = new BigDecimal[num_tuples];
+                    System.arraycopy(result.decimals[j], 0, decimals[j], position, result.size);
+                }
+            }
+            position += result.size;
+        }
+        return new Relation(relation_id, schema, new ColumnStore(ids, columns, decimals));
+    }
+
+    /** 
+     * @param chunk The lines to look at
+     * @return The positions in the file of the lines starting with Relation or End
+     */
+    private static List<Long> find_frames(Chunk chunk)
+    {
+        List<Long> positions = new ArrayList<Long>();
+        byte[] b = chunk.bytes;
+        int line_start = chunk.begin;
+        while (line_start < chunk.end)
+        {
+            if (starts_with(b, line_start, "Relation") || starts_with(b, line_start, "End"))
+                positions.add(chunk.offset + line_start);
+            line_start = line_end(b, line_start) + 1;
+        }
+        return positions;
+    }
+
+    /** 
+     * Parse the tuples in a chunk, splitting each line by commas like split(",+")
+     * @param chunk The lines to parse
+     * @param order The position in the line of each attribute to store
+     * @return The tuples in column-major order
+     */
+    private static ChunkResult parse_chunk(Chunk chunk, int[] order)
+    {
+        byte[] b = chunk.bytes;
+        int curr_attr_no = order.length;
+        int capacity = Math.max(16, (chunk.end - chunk.begin) / 32);
+        ChunkResult result = new ChunkResult();
+        result.ids = new String[capacity];
+        result.columns = new double[curr_attr_no - 1][capacity];
+
+        int[] token_start = new int[curr_attr_no], token_end = new int[curr_attr_no];
+        int line_start = chunk.begin;
+        while (line_start < chunk.end)
+        {
+            int line_end = line_end(b, line_start);
+            int stop = line_end;
+            while (stop > line_start && (b[stop - 1] == '\r' || b[stop - 1] == ' ')) stop--;
+            if (stop > line_start)
+            {
+                // Tokenize the line
+                int count = 0, position = line_start;
+                while (position < stop && count < curr_attr_no)
+                {
+                    int comma = position;
+                    while (comma < stop && b[comma] != ',') comma++;
+                    token_start[count] = position;
+                    token_end[count] = comma;
+                    count++;
+                    while (comma < stop && b[comma] == ',') comma++;
+                    position = comma;
+                }
+                if (count < curr_attr_no)
+                    throw new IllegalArgumentException("Too few values in line: " + new String(b, line_start, stop - line_start, CHARSET));
+
+                if (result.size == capacity)
+                {
+                    capacity *= 2;
+                    String[] ids = new String[capacity];
+                    System.arraycopy(result.ids, 0, ids, 0, result.size);
+                    result.ids = ids;
+                    for (int j = 0; j < curr_attr_no - 1; j++)
+                    {
+                        double[] column = new double[capacity];
+                        System.arraycopy(result.columns[j], 0, column, 0, result.size);
+                        result.columns[j] = column;
+                        if (result.decimals != null && result.decimals[j] != null)
+                        {
+                            BigDecimal[] decimals = new BigDecimal[capacity];
+                            System.arraycopy(result.decimals[j], 0, decimals, 0, result.size);
+                            result.decimals[j] = decimals;
+                        }
+                    }
+                }
+                int id = order[0];
+                result.ids[result.size] = new String(b, token_start[id], token_end[id] - token_start[id], CHARSET);
+                for (int j = 1; j < curr_attr_no; j++)
+                {
+                    int start = token_start[order[j]], length = token_end[order[j]] - start;
+                    double value = parse_double(b, start, start + length);
+                    result.columns[j - 1][result.size] = value;
+                    // Only a long or tiny number needs its string to tell whether its double gives its decimal back
+                    if (!ColumnStore.is_short(length, value))
+                        keep(result, j - 1, capacity, ColumnStore.decimal(new String(b, start, length, CHARSET), value));
+                }
+                result.size++;
+            }
+            line_start = line_end + 1;
+        }
+        return result;
+    }
+
+    /** 
+     * Keep the decimal of the last parsed value of an attribute
+     * @param result The tuples parsed so far
+     * @param attribute The index of the attribute
+     * @param capacity The capacity of the columns of the result
+     * @param decimal The decimal, null if it is not kept
+     */
+    private static void keep(ChunkResult result, int attribute, int capacity, BigDecimal decimal)
+    {
+        if (decimal == null) return;
+        if (result.decimals == null)
+            result.decimals = new BigDecimal[result.columns.length][];
+        if (result.decimals[attribute] == null)
+            result.decimals[attribute] = new BigDecimal[capacity];
+        result.decimals[attribute][result.size] = decimal;
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** 
+     * Parse a decimal number without creating a string
+     * When the digits fit in 53 bits and the power of ten is exact, one multiplication or division gives the correctly rounded value,
+     * otherwise the number is parsed by Double.parseDouble, so the result is always the same as Double.parseDouble
+     * @param b The bytes of the input
+     * @param from The first byte of the number
+     * @param to The byte after the number
+     * @return The value of the number
+     */
+    static double parse_double(byte[] b, int from, int to)
+    {
+        int i = from;
+        while (i < to && b[i] == ' ') i++;
+        boolean negative = false;
+        if (i < to && (b[i] == '-' || b[i] == '+'))
+        {
+            negative = b[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0, digits = 0;
+        boolean seen_digit = false;
+        while (i < to && b[i] >= '0' && b[i] <= '9')
+        {
+            mantissa = mantissa * 10 + (b[i] - '0');
+            if (mantissa != 0) digits++;
+            seen_digit = true;
+            i++;
+        }
+        if (i < to && b[i] == '.')
+        {
+            i++;
+            while (i < to && b[i] >= '0' && b[i] <= '9')
+            {
+                mantissa = mantissa * 10 + (b[i] - '0');
+                if (mantissa != 0) digits++;
+                exponent--;
+                seen_digit = true;
+                i++;
+            }
+        }
+        if (seen_digit && i < to && (b[i] == 'e' || b[i] == 'E'))
+        {
+            i++;
+            boolean negative_exponent = false;
+            if (i < to && (b[i] == '-' || b[i] == '+'))
+            {
+                negative_exponent = b[i] == '-';
+                i++;
+            }
+            int e = 0;
+            boolean seen_exponent = false;
+            while (i < to && b[i] >= '0' && b[i] <= '9' && e < 10000)
+            {
+                e = e * 10 + (b[i] - '0');
+                seen_exponent = true;
+                i++;
+            }
+            if (!seen_exponent) seen_digit = false;
+            exponent += negative_exponent ? -e : e;
+        }
+        while (i < to && b[i] == ' ') i++;
+
+        if (seen_digit && i == to && digits <= 15 && exponent >= -22 && exponent <= 22)
+        {
+            double value = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(new String(b, from, to - from, CHARSET));
+    }
+
+    /** 
+     * @return Whether the bytes at the position start with the prefix
+     */
+    private static boolean starts_with(byte[] b, int position, String prefix)
+    {
+        if (position + prefix.length() > b.length) return false;
+        for (int i = 0; i < prefix.length(); i++)
+            if (b[position + i] != prefix.charAt(i)) return false;
+        return true;
+    }
+
+    /** 
+     * @return The position of the line break ending the line, or the length of the bytes for the last line
+     */
+    private static int line_end(byte[] b, int line_start)
+    {
+        int i = line_start;
+        while (i < b.length && b[i] != '\n') i++;
+        return i;
+    }
+
+    /** 
+     * Read the lines starting in [from, to) of the file
+     * A line which starts before the range belongs to the previous range, and the last line is read until its end even beyond to
+     * @param limit The position in the file where the last line is cut off at the latest
+     */
+    private static Chunk read_chunk(FileChannel channel, long from, long to, long limit) throws IOException
+    {
+        long start = Math.max(0, from - 1);
+        int length = (int) (to - start);
+        byte[] bytes = read(channel, start, length);
+        // Extend the bytes until the last line is complete
+        long end = start + length;
+        while (end < limit && (length == 0 || bytes[length - 1] != '\n'))
+        {
+            int extra = (int) Math.min(1 << 16, limit - end);
+            byte[] more = read(channel, end, extra);
+            int stop = 0;
+            while (stop < extra && more[stop] != '\n') stop++;
+            int taken = Math.min(stop + 1, extra);
+            byte[] extended = new byte[length + taken];
+            System.arraycopy(bytes, 0, extended, 0, length);
+            System.arraycopy(more, 0, extended, length, taken);
+            bytes = extended;
+            length += taken;
+            end += taken;
+            if (stop < extra) break;
+        }
+
+        Chunk chunk = new Chunk();
+        chunk.offset = start;
+        chunk.bytes = bytes;
+        chunk.end = (int) (to - start);
+        if (from == 0)
+        {
+            chunk.begin = 0;
+        }
+        else
+        {
+            // Skip the rest of a line started in the previous range; bytes[0] is the byte just before from
+            int i = 0;
+            while (i < chunk.end && bytes[i] != '\n') i++;
+            chunk.begin = i + 1;
+        }
+        return chunk;
+    }
+
+    /** 
+     * @return The bytes of the line starting at the position in the file, without the line break
+     */
+    private static byte[] read_line(FileChannel channel, long position, long size) throws IOException
+    {
+        byte[] line = new byte[0];
+        long end = position;
+        while (end < size)
+        {
+            byte[] block = read(channel, end, (int) Math.min(256, size - end));
+            int stop = 0;
+            while (stop < block.length && block[stop] != '\n') stop++;
+            byte[] extended = new byte[line.length + stop];
+            System.arraycopy(line, 0, extended, 0, line.length);
+            System.arraycopy(block, 0, extended, line.length, stop);
+            line = extended;
+            end += block.length;
+            if (stop < block.length) break;
+        }
+        return line;
+    }
+
+    /** 
+     * @return The line as a string without a trailing carriage return, like BufferedReader.readLine
+     */
+    private static String to_string(byte[] line)
+    {
+        int length = line.length;
+        if (length > 0 && line[length - 1] == '\r') length--;
+        return new String(line, 0, length, CHARSET);
+    }
+
+    /** 
+     * @return The bytes in [position, position + length) of the file
+     */
+    private static byte[] read(FileChannel channel, long position, int length) throws IOException
+    {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of file");
+        }
+        return bytes;
+    }
+
+    /** 
+     * @return The results of all futures in order
+     */
+    private static <T> List<T> join(List<Future<T>> futures) throws IOException
+    {
+        List<T> results = new ArrayList<T>(futures.size());
+        try
+        {
+            for (Future<T> future : futures)
+                results.add(future.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        return results;
+    }
+}
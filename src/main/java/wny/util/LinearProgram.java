@@ -0,0 +1,294 @@
+package wny.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A small linear program over the weights: each weight in a range, the weights summing to 1, and linear constraints row * w <= bound
+ * Several objectives are minimized over the same region, so the feasible basis of the first phase is kept for all of them
+ * Without constraints the program is a continuous knapsack, which is solved greedily;
+ * otherwise it is solved by the two-phase simplex method with Bland's rule on a dense tableau, which suits a few weights and constraints
+ */
+public class LinearProgram
+{
+    private static final double TOLERANCE = 1e-9;
+
+    private int num_variables;
+    private double[] lower;
+    private double[] upper;
+    private ArrayList<double[]> rows;
+    private ArrayList<Double> bounds;
+    // The tableau of a feasible basis in the weights shifted by their lowest values, null until the first phase is done
+    private double[][] tableau;
+    private int[] basis;
+    // The number of columns which may enter the basis, without the artificial ones
+    private int num_columns;
+    private boolean solved;
+    private boolean feasible;
+
+    /**
+     * @param lower The lowest value of each weight
+     * @param upper The highest value of each weight
+     */
+    public LinearProgram(double[] lower, double[] upper)
+    {
+        num_variables = lower.length;
+        this.lower = lower.clone();
+        this.upper = upper.clone();
+        rows = new ArrayList<double[]>();
+        bounds = new ArrayList<Double>();
+    }
+
+    /**
+     * Add the constraint row * w <= bound
+     * @param row The coefficient of each weight
+     * @param bound The bound
+     */
+    public void add(double[] row, double bound)
+    {
+        rows.add(row.clone());
+        bounds.add(bound);
+        solved = false;
+    }
+
+    /**
+     * @return Whether some weights satisfy all constraints
+     */
+    public boolean feasible()
+    {
+        solve();
+        return feasible;
+    }
+
+    /**
+     * @param objective The coefficient of each weight
+     * @return The smallest value of objective * w over the feasible weights, NaN if there are none
+     */
+    public double minimize(double[] objective)
+    {
+        solve();
+        if (!feasible) return Double.NaN;
+        if (rows.isEmpty()) return knapsack(objective);
+
+        int num_rows = basis.length, width = tableau[0].length;
+        double[][] t = new double[num_rows][];
+        for (int r = 0; r < num_rows; r++) {
+            t[r] = tableau[r].clone();
+        }
+        int[] b = basis.clone();
+        double[] cost = new double[width - 1];
+        System.arraycopy(objective, 0, cost, 0, num_variables);
+        double[] reduced = reduced_costs(t, b, cost);
+        iterate(t, b, reduced);
+
+        double value = 0;
+        for (int j = 0; j < num_variables; j++) {
+            value += objective[j] * lower[j];
+        }
+        for (int r = 0; r < num_rows; r++) {
+            if (b[r] < num_variables) value += objective[b[r]] * t[r][width - 1];
+        }
+        return value;
+    }
+
+    /**
+     * From the lowest weights, the missing sum is given to the weights with the smallest coefficients first
+     * @param objective The coefficient of each weight
+     * @return The smallest value of objective * w
+     */
+    private double knapsack(double[] objective)
+    {
+        Integer[] order = new Integer[num_variables];
+        double missing = 1, value = 0;
+        for (int j = 0; j < num_variables; j++) {
+            order[j] = j;
+            missing -= lower[j];
+            value += objective[j] * lower[j];
+        }
+        Arrays.sort(order, Comparator.comparingDouble(j -> objective[j]));
+        for (int j : order) {
+            if (missing <= 0) break;
+            double raise = Math.min(missing, upper[j] - lower[j]);
+            value += objective[j] * raise;
+            missing -= raise;
+        }
+        return value;
+    }
+
+    /**
+     * Find a feasible basis by the first phase, which minimizes the sum of the artificial variables
+     * The columns are the shifted weights y = w - lower, a slack for the upper value of each weight, a slack for each constraint, then the artificial ones
+     */
+    private void solve()
+    {
+        if (solved) return;
+        solved = true;
+        double lowest = 0, highest = 0;
+        for (int j = 0; j < num_variables; j++) {
+            if (upper[j] < lower[j]) {
+                feasible = false;
+                return;
+            }
+            lowest += lower[j];
+            highest += upper[j];
+        }
+        feasible = lowest <= 1 + TOLERANCE && highest >= 1 - TOLERANCE;
+        if (!feasible || rows.isEmpty()) return;
+
+        int m = num_variables, num_constraints = rows.size();
+        double[] rhs = new double[num_constraints];
+        int num_artificial = 1;
+        for (int c = 0; c < num_constraints; c++) {
+            rhs[c] = bounds.get(c);
+            for (int j = 0; j < m; j++) {
+                rhs[c] -= rows.get(c)[j] * lower[j];
+            }
+            if (rhs[c] < 0) num_artificial++;
+        }
+        num_columns = 2 * m + num_constraints;
+        int num_rows = m + num_constraints + 1, width = num_columns + num_artificial + 1;
+        double[][] t = new double[num_rows][width];
+        int[] b = new int[num_rows];
+        int artificial = num_columns;
+        for (int j = 0; j < m; j++) {
+            t[j][j] = 1;
+            t[j][m + j] = 1;
+            t[j][width - 1] = upper[j] - lower[j];
+            b[j] = m + j;
+        }
+        for (int c = 0; c < num_constraints; c++) {
+            double sign = (rhs[c] < 0) ? -1 : 1;
+            double[] row = t[m + c];
+            for (int j = 0; j < m; j++) {
+                row[j] = sign * rows.get(c)[j];
+            }
+            row[2 * m + c] = sign;
+            row[width - 1] = sign * rhs[c];
+            if (sign < 0) {
+                row[artificial] = 1;
+                b[m + c] = artificial++;
+            } else {
+                b[m + c] = 2 * m + c;
+            }
+        }
+        double[] sum = t[num_rows - 1];
+        for (int j = 0; j < m; j++) {
+            sum[j] = 1;
+        }
+        sum[artificial] = 1;
+        sum[width - 1] = Math.max(1 - lowest, 0);
+        b[num_rows - 1] = artificial;
+
+        double[] cost = new double[width - 1];
+        for (int a = num_columns; a < width - 1; a++) {
+            cost[a] = 1;
+        }
+        int saved_columns = num_columns;
+        num_columns = width - 1;
+        iterate(t, b, reduced_costs(t, b, cost));
+        num_columns = saved_columns;
+
+        double infeasibility = 0;
+        for (int r = 0; r < num_rows; r++) {
+            if (b[r] >= num_columns) infeasibility += t[r][width - 1];
+        }
+        if (infeasibility > TOLERANCE) {
+            feasible = false;
+            return;
+        }
+        // Artificial variables left in the basis at 0 are replaced by any other column of their row, or their row is redundant
+        for (int r = 0; r < num_rows; r++) {
+            if (b[r] < num_columns) continue;
+            for (int j = 0; j < num_columns; j++) {
+                if (Math.abs(t[r][j]) > TOLERANCE) {
+                    pivot(t, b, r, j);
+                    break;
+                }
+            }
+        }
+        tableau = t;
+        basis = b;
+    }
+
+    /**
+     * @param t The tableau
+     * @param b The basic column of each row
+     * @param cost The cost of each column
+     * @return The reduced cost of each column
+     */
+    private double[] reduced_costs(double[][] t, int[] b, double[] cost)
+    {
+        double[] reduced = cost.clone();
+        for (int r = 0; r < b.length; r++) {
+            double basic = cost[b[r]];
+            if (basic == 0) continue;
+            for (int j = 0; j < reduced.length; j++) {
+                reduced[j] -= basic * t[r][j];
+            }
+        }
+        return reduced;
+    }
+
+    /**
+     * Pivot while a column with a negative reduced cost can enter the basis, the first such column and the first row of the smallest ratio by Bland's rule
+     * @param t The tableau, updated in place
+     * @param b The basic column of each row, updated in place
+     * @param reduced The reduced cost of each column, updated in place
+     */
+    private void iterate(double[][] t, int[] b, double[] reduced)
+    {
+        int width = t[0].length;
+        while (true) {
+            int entering = -1;
+            for (int j = 0; j < num_columns; j++) {
+                if (reduced[j] < -TOLERANCE) {
+                    entering = j;
+                    break;
+                }
+            }
+            if (entering < 0) return;
+            int leaving = -1;
+            double ratio = Double.POSITIVE_INFINITY;
+            for (int r = 0; r < b.length; r++) {
+                if (t[r][entering] > TOLERANCE) {
+                    double q = t[r][width - 1] / t[r][entering];
+                    if (q < ratio - TOLERANCE || (q < ratio + TOLERANCE && leaving >= 0 && b[r] < b[leaving])) {
+                        ratio = Math.min(ratio, q);
+                        leaving = r;
+                    }
+                }
+            }
+            // The region is bounded, so a column without a ratio would only come from rounding
+            if (leaving < 0) return;
+            pivot(t, b, leaving, entering);
+            double factor = reduced[entering];
+            for (int j = 0; j < reduced.length; j++) {
+                reduced[j] -= factor * t[leaving][j];
+            }
+        }
+    }
+
+    /**
+     * @param t The tableau, updated in place
+     * @param b The basic column of each row, updated in place
+     * @param row The row of the pivot
+     * @param column The column of the pivot
+     */
+    private static void pivot(double[][] t, int[] b, int row, int column)
+    {
+        double[] p = t[row];
+        double value = p[column];
+        for (int j = 0; j < p.length; j++) {
+            p[j] /= value;
+        }
+        for (int r = 0; r < t.length; r++) {
+            if (r == row || t[r][column] == 0) continue;
+            double factor = t[r][column];
+            for (int j = 0; j < p.length; j++) {
+                t[r][j] -= factor * p[j];
+            }
+        }
+        b[row] = column;
+    }
+}
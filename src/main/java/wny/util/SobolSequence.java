@@ -0,0 +1,111 @@
+package wny.util;
+
+import java.util.SplittableRandom;
+
+/**
+ * A Sobol low-discrepancy sequence in the unit cube, randomized by a digital shift drawn from a seed
+ * The direction numbers are the first ones of Joe and Kuo (new-joe-kuo-6.21201), up to MAX_DIMENSION dimensions
+ * Any point is computed directly from its index, so disjoint ranges of indices can be generated in parallel
+ * The shift keeps the equidistribution of the sequence, and every coordinate is strictly between 0 and 1
+*/
+public class SobolSequence
+{
+    public static final int MAX_DIMENSION = 21;
+    private static final int BITS = 32;
+
+    // The degree s and the coefficients a of the primitive polynomial, then the initial direction numbers m_1 ... m_s, from dimension 2 on
+    private static final int[][] DIRECTIONS = {
+        {1, 0, 1},
+        {2, 1, 1, 3},
+        {3, 1, 1, 3, 1},
+        {3, 2, 1, 1, 1},
+        {4, 1, 1, 1, 3, 3},
+        {4, 4, 1, 3, 5, 13},
+        {5, 2, 1, 1, 5, 5, 17},
+        {5, 4, 1, 1, 5, 5, 5},
+        {5, 7, 1, 1, 7, 11, 19},
+        {5, 11, 1, 1, 5, 1, 1},
+        {5, 13, 1, 1, 1, 3, 11},
+        {5, 14, 1, 3, 5, 5, 31},
+        {6, 1, 1, 3, 3, 9, 7, 49},
+        {6, 13, 1, 1, 1, 15, 21, 21},
+        {6, 16, 1, 3, 1, 13, 27, 49},
+        {6, 19, 1, 1, 1, 15, 7, 5},
+        {6, 22, 1, 3, 1, 15, 13, 25},
+        {6, 25, 1, 1, 5, 5, 19, 61},
+        {7, 1, 1, 3, 7, 11, 23, 15, 103},
+        {7, 4, 1, 3, 7, 13, 13, 15, 69},
+    };
+
+    private final int dimension;
+    // [dimension][bit] The direction numbers, scaled to 32 bits
+    private final int[][] v;
+    private final int[] shift;
+
+    /**
+     * @param dimension The number of coordinates, at most MAX_DIMENSION
+     * @param seed The seed of the digital shift
+     */
+    public SobolSequence(int dimension, long seed)
+    {
+        if (dimension > MAX_DIMENSION) {
+            throw new IllegalArgumentException("Sobol sequences are available up to " + MAX_DIMENSION + " dimensions, not " + dimension);
+        }
+        this.dimension = dimension;
+        v = new int[dimension][BITS];
+        for (int d = 0; d < dimension; d++) {
+            if (d == 0) {
+                for (int k = 0; k < BITS; k++) {
+                    v[d][k] = 1 << (BITS - 1 - k);
+                }
+                continue;
+            }
+            int[] direction = DIRECTIONS[d - 1];
+            int s = direction[0], a = direction[1];
+            for (int k = 0; k < s; k++) {
+                v[d][k] = direction[k + 2] << (BITS - 1 - k);
+            }
+            for (int k = s; k < BITS; k++) {
+                int value = v[d][k - s] ^ (v[d][k - s] >>> s);
+                for (int l = 1; l < s; l++) {
+                    if (((a >>> (s - 1 - l)) & 1) != 0) {
+                        value ^= v[d][k - l];
+                    }
+                }
+                v[d][k] = value;
+            }
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        shift = new int[dimension];
+        for (int d = 0; d < dimension; d++) {
+            shift[d] = random.nextInt();
+        }
+    }
+
+    /**
+     * @return The number of coordinates
+     */
+    public int get_dimension()
+    {
+        return dimension;
+    }
+
+    /**
+     * @param index The index of a point, below 2^32
+     * @param point The coordinates of the point, filled in place
+     */
+    public void get(long index, double[] point)
+    {
+        for (int d = 0; d < dimension; d++) {
+            int x = shift[d];
+            long bits = index;
+            for (int k = 0; bits != 0; k++, bits >>>= 1) {
+                if ((bits & 1) != 0) {
+                    x ^= v[d][k];
+                }
+            }
+            // The middle of the dyadic interval, never 0 or 1
+            point[d] = ((x & 0xFFFFFFFFL) + 0.5) / (1L << BITS);
+        }
+    }
+}
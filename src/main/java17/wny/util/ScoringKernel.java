@@ -0,0 +1,93 @@
+package wny.util;
+
+import java.util.Arrays;
+
+/** 
+ * The kernel computing the scores of a batch of tuples over columnar data, the innermost loop of ranking and sampling
+ * This is the version of the multi-release jar for JDK 17 or later: the kernel using the Vector API is selected at runtime
+ * when the module jdk.incubator.vector is added (java --add-modules jdk.incubator.vector ...),
+ * unless the system property wny.vector is false; otherwise this class is the scalar kernel
+ * Every kernel sums the products of each tuple in the order of the attributes, without fused multiply-add,
+ * so all kernels give exactly the same scores
+*/
+public class ScoringKernel
+{
+    private static final ScoringKernel INSTANCE = select();
+
+    /** 
+     * @return The vector kernel if the Vector API is available, the scalar kernel otherwise
+     */
+    private static ScoringKernel select()
+    {
+        if (!Boolean.parseBoolean(System.getProperty("wny.vector", "true"))) {
+            return new ScoringKernel();
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return new ScoringKernel();
+        }
+        try
+        {
+            return new VectorScoringKernel();
+        }
+        catch (LinkageError e)
+        {
+            return new ScoringKernel();
+        }
+    }
+
+    /** 
+     * @return The kernel for the running JDK
+     */
+    public static ScoringKernel getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /** 
+     * @return The name of the kernel
+     */
+    public String name()
+    {
+        return "scalar";
+    }
+
+    /** 
+     * scores[i] = weights[0] * columns[0][offset + i] + weights[1] * columns[1][offset + i] + ...
+     * @param columns The values of each attribute, one array per attribute
+     * @param offset The index in the arrays of the first tuple
+     * @param length The number of tuples
+     * @param weights The weight of each attribute
+     * @param scores The score of each tuple, starting from index 0
+     */
+    public void score(double[][] columns, int offset, int length, double[] weights, double[] scores)
+    {
+        Arrays.fill(scores, 0, length, 0);
+        for (int j = 0; j < weights.length; j++) {
+            double weight = weights[j];
+            double[] column = columns[j];
+            for (int i = 0; i < length; i++) {
+                scores[i] += weight * column[offset + i];
+            }
+        }
+    }
+
+    /** 
+     * sums[i] = coefficients[0] * |columns[0][offset + i]| + coefficients[1] * |columns[1][offset + i]| + ...
+     * @param columns The values of each attribute, one array per attribute
+     * @param offset The index in the arrays of the first tuple
+     * @param length The number of tuples
+     * @param coefficients The coefficient of each attribute
+     * @param sums The sum of each tuple, starting from index 0
+     */
+    public void score_abs(double[][] columns, int offset, int length, double[] coefficients, double[] sums)
+    {
+        Arrays.fill(sums, 0, length, 0);
+        for (int j = 0; j < coefficients.length; j++) {
+            double coefficient = coefficients[j];
+            double[] column = columns[j];
+            for (int i = 0; i < length; i++) {
+                sums[i] += coefficient * Math.abs(column[offset + i]);
+            }
+        }
+    }
+}
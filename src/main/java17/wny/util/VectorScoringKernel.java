@@ -0,0 +1,61 @@
+package wny.util;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/** 
+ * The scoring kernel using the Vector API, only in the multi-release jar for JDK 17 or later
+ * The scores of as many tuples as the lanes of a vector are accumulated over all attributes in one vector,
+ * with a multiplication and an addition per attribute as in the scalar kernel
+ * @see ScoringKernel
+*/
+class VectorScoringKernel extends ScoringKernel
+{
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public String name()
+    {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+
+    @Override
+    public void score(double[][] columns, int offset, int length, double[] weights, double[] scores)
+    {
+        int bound = SPECIES.loopBound(length), i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector sum = DoubleVector.zero(SPECIES);
+            for (int j = 0; j < weights.length; j++) {
+                sum = sum.add(DoubleVector.fromArray(SPECIES, columns[j], offset + i).mul(weights[j]));
+            }
+            sum.intoArray(scores, i);
+        }
+        for (; i < length; i++) {
+            double score = 0;
+            for (int j = 0; j < weights.length; j++) {
+                score += weights[j] * columns[j][offset + i];
+            }
+            scores[i] = score;
+        }
+    }
+
+    @Override
+    public void score_abs(double[][] columns, int offset, int length, double[] coefficients, double[] sums)
+    {
+        int bound = SPECIES.loopBound(length), i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector sum = DoubleVector.zero(SPECIES);
+            for (int j = 0; j < coefficients.length; j++) {
+                sum = sum.add(DoubleVector.fromArray(SPECIES, columns[j], offset + i).abs().mul(coefficients[j]));
+            }
+            sum.intoArray(sums, i);
+        }
+        for (; i < length; i++) {
+            double sum = 0;
+            for (int j = 0; j < coefficients.length; j++) {
+                sum += coefficients[j] * Math.abs(columns[j][offset + i]);
+            }
+            sums[i] = sum;
+        }
+    }
+}